@@ -29,6 +29,12 @@ repositories {
     maven("https://jitpack.io")
 }
 
+// Benchmarks, run with ./gradlew jmh (optionally -Pjmh.include=<regex> -Pjmh.args="-prof gc")
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets["main"].output + sourceSets["main"].compileClasspath
+    runtimeClasspath += output + compileClasspath
+}
+
 dependencies {
     // Provided
     compileOnly(libs.paper)
@@ -46,6 +52,9 @@ dependencies {
     implementation(libs.bstats)
 
     testImplementation(libs.junit.jupiter)
+
+    "jmhImplementation"(libs.jmh.core)
+    "jmhAnnotationProcessor"(libs.jmh.generator)
 }
 
 tasks {
@@ -116,6 +125,15 @@ tasks {
     }
 
     runPaper.folia.registerTask()
+
+    register<JavaExec>("jmh") {
+        group = "benchmark"
+        description = "Runs the JMH benchmarks."
+        classpath = jmh.runtimeClasspath
+        mainClass = "org.openjdk.jmh.Main"
+        args(findProperty("jmh.include")?.toString() ?: ".*")
+        findProperty("jmh.args")?.toString()?.split(" ")?.let { args(it) }
+    }
 }
 
 java {
@@ -0,0 +1,64 @@
+package com.mattmx.nametags.benchmark;
+
+import com.mattmx.nametags.config.TextFormatter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+/**
+ * Generates name tag lines similar to the ones found in real configs, always
+ * from a fixed seed so runs can be compared.
+ */
+public class BenchmarkLines {
+    public static final long SEED = 0x5EEDL;
+
+    private static final String[] NAMES = {
+        "MattMX", "Notch", "jeb_", "Dinnerbone", "xX_Builder_Xx", "a", "TheLongestNameEver1"
+    };
+    private static final String[] RANKS = { "Admin", "Mod", "VIP", "MVP+", "Member" };
+
+    private static final String[] MINI_MESSAGE = {
+        "<white>{name}</white>",
+        "<blue>{number}ms</blue>",
+        "<gray>[<aqua>{rank}</aqua>]</gray> <white>{name}</white>",
+        "<gradient:#ff5555:#5555ff>[{rank}]</gradient> <bold>{name}</bold>",
+        "<#ffaa00>{name} <dark_gray>|</dark_gray> <green>{number} ❤</green>",
+    };
+    private static final String[] LEGACY = {
+        "&f{name}",
+        "&9{number}ms",
+        "&7[&b{rank}&7] &f{name}",
+        "&x&f&f&5&5&5&5[{rank}] &l{name}",
+        "&#ffaa00{name} &8| &a{number} ❤",
+    };
+
+    /**
+     * @param formatter The formatter the lines are written for.
+     * @param count     How many lines to generate.
+     * @return Lines with names, ranks and numbers already filled in.
+     */
+    public static @NotNull String @NotNull [] generate(@NotNull TextFormatter formatter, int count) {
+        final Random random = new Random(SEED);
+        final String[] lines = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            final String[] templates = switch (formatter) {
+                case MINI_MESSAGE -> MINI_MESSAGE;
+                case LEGACY -> LEGACY;
+                // Smart configs usually mix both styles
+                case SMART -> random.nextBoolean() ? MINI_MESSAGE : LEGACY;
+            };
+
+            lines[i] = fill(templates[random.nextInt(templates.length)], random);
+        }
+
+        return lines;
+    }
+
+    private static @NotNull String fill(@NotNull String template, @NotNull Random random) {
+        return template
+            .replace("{name}", NAMES[random.nextInt(NAMES.length)])
+            .replace("{rank}", RANKS[random.nextInt(RANKS.length)])
+            .replace("{number}", String.valueOf(random.nextInt(500)));
+    }
+}
@@ -0,0 +1,57 @@
+package com.mattmx.nametags.benchmark;
+
+import com.mattmx.nametags.config.TextFormatter;
+import com.mattmx.nametags.utils.ComponentUtils;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComponentUtilsBenchmark {
+    private static final int TAGS = 64;
+    private static final TextComponent RELATIVE_ARG_PREFIX = Component.text("%rel_");
+
+    @Param({"false", "true"})
+    public boolean relational;
+
+    private TextComponent[] tags;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        final String[] lines = BenchmarkLines.generate(TextFormatter.MINI_MESSAGE, TAGS * 2);
+        tags = new TextComponent[TAGS];
+
+        // Two lines per tag like the default config, the relational placeholder goes last
+        for (int i = 0; i < TAGS; i++) {
+            final String second = relational ? lines[i * 2 + 1] + " %rel_factionsuuid_relation_color%" : lines[i * 2 + 1];
+
+            tags[i] = (TextComponent) Component.empty()
+                .append(TextFormatter.MINI_MESSAGE.format(lines[i * 2]))
+                .append(Component.newline())
+                .append(TextFormatter.MINI_MESSAGE.format(second));
+        }
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return ComponentUtils.contains(tags[next++ & (TAGS - 1)], RELATIVE_ARG_PREFIX);
+    }
+}
@@ -0,0 +1,85 @@
+package com.mattmx.nametags.benchmark;
+
+import com.mattmx.nametags.utils.ConcurrentIntObjectMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity id lookups as done by the packet handlers on several netty threads
+ * at once. Most lookups miss, since most entities don't have a name tag.
+ * <p>
+ * Run with {@code -Pjmh.include=EntityIdLookup -Pjmh.args="-prof gc"} to see
+ * the allocation rate of each map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class EntityIdLookupBenchmark {
+    private static final int LOOKUPS = 4096;
+
+    // Roughly a busy server: a few hundred players among thousands of entities
+    @Param({"200"})
+    public int tags;
+
+    @Param({"0.1"})
+    public double hitRatio;
+
+    private final ConcurrentHashMap<Integer, Object> boxed = new ConcurrentHashMap<>();
+    private final ConcurrentIntObjectMap<Object> primitive = new ConcurrentIntObjectMap<>();
+    private int[] lookups;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(BenchmarkLines.SEED);
+        final int[] ids = new int[tags];
+
+        for (int i = 0; i < tags; i++) {
+            // Entity ids are sequential and well past the Integer cache
+            ids[i] = 10_000 + random.nextInt(100_000);
+
+            final Object tag = new Object();
+            boxed.put(ids[i], tag);
+            primitive.put(ids[i], tag);
+        }
+
+        lookups = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups[i] = random.nextDouble() < hitRatio
+                ? ids[random.nextInt(tags)]
+                : 10_000 + random.nextInt(100_000);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = 0;
+    }
+
+    @Benchmark
+    public Object concurrentHashMap(Cursor cursor) {
+        return boxed.get(lookups[cursor.next++ & (LOOKUPS - 1)]);
+    }
+
+    @Benchmark
+    public Object concurrentIntObjectMap(Cursor cursor) {
+        return primitive.get(lookups[cursor.next++ & (LOOKUPS - 1)]);
+    }
+}
@@ -0,0 +1,90 @@
+package com.mattmx.nametags.benchmark;
+
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.util.Vector3f;
+import com.mattmx.nametags.packet.EntityMetadataRewriter;
+import net.kyori.adventure.text.Component;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The entry loop of the metadata handler on synthetic packets, shaped like
+ * the ones EntityLib sends for a text display: sometimes only the text,
+ * sometimes a full spawn with every index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityMetadataRewriterBenchmark {
+    private static final int PACKETS = 256;
+    private static final int MAX_INDEX = 27;
+
+    @Param({"false", "true"})
+    public boolean oldClient;
+
+    private List<EntityData<?>>[] packets;
+    private int next = 0;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setup() {
+        final Random random = new Random(BenchmarkLines.SEED);
+        packets = new List[PACKETS];
+
+        for (int i = 0; i < PACKETS; i++) {
+            final int size = random.nextBoolean() ? 1 + random.nextInt(3) : MAX_INDEX;
+            final List<EntityData<?>> entries = new ArrayList<>(size + 1);
+
+            for (int index = 0; index < MAX_INDEX && entries.size() < size; index++) {
+                // Small packets only contain a few random indices
+                if (size < MAX_INDEX && index != EntityMetadataRewriter.TEXT_DISPLAY_TEXT_INDEX
+                    && random.nextInt(MAX_INDEX) >= size) {
+                    continue;
+                }
+
+                entries.add(entry(index, random));
+            }
+
+            packets[i] = entries;
+        }
+    }
+
+    private static EntityData<?> entry(int index, Random random) {
+        if (index == EntityMetadataRewriter.TEXT_DISPLAY_TEXT_INDEX) {
+            return new EntityData<>(index, EntityDataTypes.ADV_COMPONENT, Component.text("Player" + random.nextInt(100)));
+        }
+
+        if (index == EntityMetadataRewriter.PRE_1_20_2_TRANSLATION_INDEX
+            || index == EntityMetadataRewriter.POST_1_20_2_TRANSLATION_INDEX) {
+            return new EntityData<>(index, EntityDataTypes.VECTOR3F, new Vector3f(0f, random.nextFloat(), 0f));
+        }
+
+        return new EntityData<>(index, EntityDataTypes.INT, random.nextInt());
+    }
+
+    @Benchmark
+    public EntityData<?> rewrite() {
+        // Copy since the rewriter may add an entry to the list
+        final List<EntityData<?>> entries = new ArrayList<>(packets[next++ & (PACKETS - 1)]);
+
+        return EntityMetadataRewriter.rewrite(entries, oldClient, EntityMetadataRewriter.POST_1_20_2_TRANSLATION_INDEX);
+    }
+}
@@ -0,0 +1,88 @@
+package com.mattmx.nametags.benchmark;
+
+import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.config.LegacyTranscoder;
+import com.mattmx.nametags.config.TextFormatter;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares {@link LegacyTranscoder} against the chain of regex passes and
+ * replaces {@link TextFormatter#SMART} used before it. That both produce the
+ * same output is covered by {@code LegacyTranscoderTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LegacyTranscoderBenchmark {
+    private static final int LINES = 256;
+    private static final Pattern HEX_PATTERN = Pattern.compile("&#([0-9a-fA-F]{6})");
+
+    @Param({"reference", "transcoder"})
+    public String implementation;
+
+    private String[] lines;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        lines = BenchmarkLines.generate(TextFormatter.SMART, LINES);
+    }
+
+    @Benchmark
+    public String transcode() {
+        final String line = lines[next++ & (LINES - 1)];
+
+        return implementation.equals("reference")
+            ? reference(line)
+            : LegacyTranscoder.toMiniMessage(line);
+    }
+
+    /**
+     * What {@link TextFormatter#SMART} did before handing the line to MiniMessage.
+     */
+    private static @NotNull String reference(@NotNull String line) {
+        String mutableLine = TextFormatter.convertLegacyHex(line.replace(NameTags.LEGACY_CHAR, '&'));
+
+        mutableLine = HEX_PATTERN.matcher(mutableLine).replaceAll("<#$1>");
+        return mutableLine
+            .replace("&0", "<black>")
+            .replace("&1", "<dark_blue>")
+            .replace("&2", "<dark_green>")
+            .replace("&3", "<dark_aqua>")
+            .replace("&4", "<dark_red>")
+            .replace("&5", "<dark_purple>")
+            .replace("&6", "<gold>")
+            .replace("&7", "<gray>")
+            .replace("&8", "<dark_gray>")
+            .replace("&9", "<blue>")
+            .replace("&a", "<green>")
+            .replace("&b", "<aqua>")
+            .replace("&c", "<red>")
+            .replace("&d", "<light_purple>")
+            .replace("&e", "<yellow>")
+            .replace("&f", "<white>")
+            .replace("&k", "<obf>")
+            .replace("&l", "<b>")
+            .replace("&m", "<st>")
+            .replace("&n", "<u>")
+            .replace("&o", "<i>")
+            .replace("&r", "<reset>");
+    }
+}
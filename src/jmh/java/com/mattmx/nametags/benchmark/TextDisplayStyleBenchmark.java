@@ -0,0 +1,116 @@
+package com.mattmx.nametags.benchmark;
+
+import com.mattmx.nametags.config.TextDisplayStyle;
+import com.mattmx.nametags.config.TextFormatter;
+import me.tofaa.entitylib.meta.Metadata;
+import me.tofaa.entitylib.meta.display.TextDisplayMeta;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a full {@code defaults} section and applies it to a tag's metadata,
+ * which is what every refresh used to do, against applying the style compiled once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextDisplayStyleBenchmark {
+    // Same as the defaults in config.yml, except range since 'default' needs a server
+    private static final String SECTION = """
+        defaults:
+          enabled: true
+          refresh-every: 500
+          text:
+            - "<white>%player_name%</white>"
+            - "<blue>%player_ping%ms</blue>"
+          background: black
+          billboard: center
+          text-shadow: true
+          range: 48
+          gap: 0.2
+          remove-empty-lines: false
+          line-width: 200
+          see-through: false
+          text-opacity: 255
+          translate:
+            x: 0.0
+            y: 0.2
+            z: 0.0
+          scale:
+            x: 1.0
+            y: 1.0
+            z: 1.0
+          brightness: -1
+          shadow:
+            strength: 0.5
+            radius: 0.5
+        """;
+
+    private ConfigurationSection section;
+    private TextDisplayStyle style;
+    private TextDisplayMeta applied;
+
+    @Setup
+    public void setup() throws InvalidConfigurationException {
+        final YamlConfiguration config = new YamlConfiguration();
+        config.loadFromString(SECTION);
+
+        section = config.getConfigurationSection("defaults");
+        style = TextDisplayStyle.compile(section, TextFormatter.MINI_MESSAGE, false);
+
+        applied = newMeta();
+        style.apply(applied);
+    }
+
+    @Benchmark
+    public TextDisplayStyle compile() {
+        return TextDisplayStyle.compile(section, TextFormatter.MINI_MESSAGE, false);
+    }
+
+    // TextDisplayMetaConfiguration#applyMeta, without reading the formatter from the plugin
+    @Benchmark
+    public TextDisplayMeta applyMeta() {
+        final TextDisplayMeta meta = newMeta();
+
+        TextDisplayStyle.compile(section, TextFormatter.MINI_MESSAGE, false).apply(meta);
+        return meta;
+    }
+
+    @Benchmark
+    public TextDisplayMeta applyCompiled() {
+        final TextDisplayMeta meta = newMeta();
+
+        style.apply(meta);
+        return meta;
+    }
+
+    // A refresh where nothing in the section changed since it was last applied
+    @Benchmark
+    public TextDisplayMeta applyUnchanged() {
+        style.apply(applied);
+        return applied;
+    }
+
+    private static TextDisplayMeta newMeta() {
+        final TextDisplayMeta meta = new TextDisplayMeta(0, new Metadata(0));
+
+        meta.setNotifyAboutChanges(false);
+        return meta;
+    }
+}
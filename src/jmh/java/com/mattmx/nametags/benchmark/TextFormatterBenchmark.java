@@ -0,0 +1,43 @@
+package com.mattmx.nametags.benchmark;
+
+import com.mattmx.nametags.config.TextFormatter;
+import net.kyori.adventure.text.Component;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextFormatterBenchmark {
+    private static final int LINES = 256;
+
+    @Param({"MINI_MESSAGE", "LEGACY", "SMART"})
+    public TextFormatter formatter;
+
+    private String[] lines;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        lines = BenchmarkLines.generate(formatter, LINES);
+    }
+
+    @Benchmark
+    public Component format() {
+        return formatter.format(lines[next++ & (LINES - 1)]);
+    }
+}
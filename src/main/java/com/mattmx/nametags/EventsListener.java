@@ -1,12 +1,17 @@
 package com.mattmx.nametags;
 
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
 import com.mattmx.nametags.entity.NameTagEntity;
 import com.mattmx.nametags.entity.trait.SneakTrait;
+import com.mattmx.nametags.hook.PapiHook;
 import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDismountEvent;
+import org.bukkit.event.entity.EntityMountEvent;
 import org.bukkit.event.entity.EntityPotionEffectEvent;
 import org.bukkit.event.entity.PlayerDeathEvent;
 import org.bukkit.event.player.*;
@@ -37,27 +42,31 @@ public class EventsListener implements Listener {
         });
     }
 
-    // @EventHandler
-    // public void onEntityRemove(@NotNull EntityRemoveFromWorldEvent event) {
-    // plugin.getEntityManager().removeLastSentPassengersCache(event.getEntity().getEntityId());
-    //
-    // NameTagEntity entity = plugin.getEntityManager()
-    // .removeEntity(event.getEntity());
-    //
-    // if (entity != null) {
-    // entity.destroy();
-    // }
-    // }
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityRemove(@NotNull EntityRemoveFromWorldEvent event) {
+        // Players also leave a world when changing worlds, they're removed on quit instead
+        if (event.getEntity() instanceof Player)
+            return;
+
+        NameTagEntity entity = plugin.getEntityManager()
+                .removeEntity(event.getEntity());
+
+        if (entity != null) {
+            entity.destroy();
+        }
+    }
 
     @EventHandler(priority = EventPriority.LOWEST)
     public void onPlayerQuit(@NotNull PlayerQuitEvent event) {
-        plugin.getEntityManager().removeLastSentPassengersCache(event.getPlayer().getEntityId());
+        plugin.getRelationalPlaceholderCache().invalidate(event.getPlayer());
+        PapiHook.getValueCache().invalidate(event.getPlayer().getUniqueId());
+        plugin.getViewerExecutor().remove(event.getPlayer().getUniqueId());
+        plugin.getOutboundQueue().remove(event.getPlayer().getUniqueId());
+        plugin.getEntityManager().getPendingAttachments().remove(event.getPlayer().getUniqueId());
         // TODO(matt): might not be sending de-spawn packet to viewers all the time?
 
-        // Remove as a viewer from all entities
-        for (final NameTagEntity entity : plugin.getEntityManager().getAllEntities()) {
-            entity.getPassenger().removeViewer(event.getPlayer().getUniqueId());
-        }
+        // Remove as a viewer from every tag they could see
+        plugin.getEntityManager().removeViewerFromAll(event.getPlayer().getUniqueId());
 
         NameTagEntity entity = plugin.getEntityManager().removeEntity(event.getPlayer());
 
@@ -76,9 +85,8 @@ public class EventsListener implements Listener {
         nameTagEntity.updateLocation();
 
         if (plugin.getConfig().getBoolean("show-self", false)) {
-            nameTagEntity.getPassenger().removeViewer(nameTagEntity.getBukkitEntity().getUniqueId());
-            nameTagEntity.getPassenger().addViewer(nameTagEntity.getBukkitEntity().getUniqueId());
-            nameTagEntity.sendPassengerPacket(event.getPlayer());
+            nameTagEntity.removeViewer(nameTagEntity.getBukkitEntity().getUniqueId());
+            nameTagEntity.show(event.getPlayer());
         }
     }
 
@@ -92,7 +100,7 @@ public class EventsListener implements Listener {
 
         if (plugin.getConfig().getBoolean("show-self", false)) {
             // Hides/removes tag on death/respawn screen
-            nameTagEntity.getPassenger().removeViewer(nameTagEntity.getBukkitEntity().getUniqueId());
+            nameTagEntity.removeViewer(nameTagEntity.getBukkitEntity().getUniqueId());
         }
     }
 
@@ -116,14 +124,44 @@ public class EventsListener implements Listener {
             Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
                 // Update entity location.
                 nameTagEntity.updateLocation();
-                // Add player back as viewer
-                nameTagEntity.getPassenger().addViewer(nameTagEntity.getBukkitEntity().getUniqueId());
-                // Send passenger packet
-                nameTagEntity.sendPassengerPacket(event.getPlayer());
+                // Add player back as viewer, the spawn and passenger packets are sent at the end of the tick
+                nameTagEntity.show(event.getPlayer());
             });
         }
     }
 
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPlayerMove(@NotNull PlayerMoveEvent event) {
+        // Tiers are far coarser than a block, so most moves don't need to recheck them
+        if (!event.hasChangedBlock())
+            return;
+
+        plugin.getEntityManager().updateLevelOfDetail(event.getPlayer(), event.getTo());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPlayerTeleport(@NotNull PlayerTeleportEvent event) {
+        plugin.getEntityManager().updateLevelOfDetail(event.getPlayer(), event.getTo());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onMount(@NotNull EntityMountEvent event) {
+        invalidatePassengers(event.getMount());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onDismount(@NotNull EntityDismountEvent event) {
+        invalidatePassengers(event.getDismounted());
+    }
+
+    private void invalidatePassengers(@NotNull Entity vehicle) {
+        NameTagEntity nameTagEntity = plugin.getEntityManager().getNameTagEntity(vehicle);
+
+        if (nameTagEntity != null) {
+            nameTagEntity.invalidatePassengers();
+        }
+    }
+
     @EventHandler(ignoreCancelled = true)
     public void onPlayerSneak(@NotNull PlayerToggleSneakEvent event) {
         if (!plugin.getConfig().getBoolean("sneak.enabled")) {
@@ -166,8 +204,9 @@ public class EventsListener implements Listener {
         boolean gainingInvisibility = event.getNewEffect() != null
                 && event.getNewEffect().getType().equals(PotionEffectType.INVISIBILITY);
 
-        // Delay the visibility update slightly to ensure the effect has been applied
-        Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, () -> {
+        // Delay the visibility update slightly to ensure the effect has been applied,
+        // on the main thread since it reads the entity's effects and trackers
+        Bukkit.getScheduler().runTaskLater(plugin, () -> {
             nameTagEntity.updateVisibility();
 
             // If losing invisibility, we need to re-add viewers since they may have been
@@ -175,21 +214,17 @@ public class EventsListener implements Listener {
             // (e.g., if nametag was toggled on while invisible)
             if (!gainingInvisibility && !plugin.getEntityManager().isNameTagDisabled(player.getUniqueId())) {
                 boolean showSelf = plugin.getConfig().getBoolean("show-self", false);
-                for (final Player viewer : Bukkit.getOnlinePlayers()) {
+                for (final Player viewer : nameTagEntity.getTrackingPlayers()) {
                     if (viewer.equals(player) && !showSelf) {
                         continue;
                     }
-                    if (!viewer.getWorld().equals(player.getWorld())) {
-                        continue;
-                    }
                     if (!nameTagEntity.getPassenger().getViewers().contains(viewer.getUniqueId())) {
-                        nameTagEntity.getPassenger().addViewer(viewer.getUniqueId());
-                        nameTagEntity.sendPassengerPacket(viewer);
+                        nameTagEntity.show(viewer);
                     }
                 }
             }
 
-            nameTagEntity.getPassenger().refresh();
+            nameTagEntity.sendMetadataChanges();
         }, 1L);
     }
 }
@@ -4,11 +4,20 @@ import com.github.retrooper.packetevents.PacketEvents;
 import com.github.retrooper.packetevents.PacketEventsAPI;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mattmx.nametags.config.ConfigDefaultsListener;
+import com.mattmx.nametags.config.GroupResolver;
+import com.mattmx.nametags.config.LodTier;
+import com.mattmx.nametags.config.TextDisplayStyle;
 import com.mattmx.nametags.config.TextFormatter;
 import com.mattmx.nametags.entity.NameTagEntityManager;
+import com.mattmx.nametags.entity.trait.RefreshTrait;
 import com.mattmx.nametags.hook.NeznamyTABHook;
+import com.mattmx.nametags.hook.PapiHook;
+import com.mattmx.nametags.hook.RelationalPlaceholderCache;
 import com.mattmx.nametags.hook.SkinRestorerHook;
 import com.mattmx.nametags.hook.VanishEventListener;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
+import com.mattmx.nametags.packet.OutboundPacketQueue;
+import com.mattmx.nametags.utils.KeyedSerialExecutor;
 import com.mattmx.nametags.utils.test.TestPlaceholderExpansion;
 import me.tofaa.entitylib.APIConfig;
 import me.tofaa.entitylib.EntityLib;
@@ -24,18 +33,31 @@ import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 public class NameTags extends JavaPlugin {
     public static final int TRANSPARENT = Color.fromARGB(0).asARGB();
     public static final char LEGACY_CHAR = (char) 167;
     private static @Nullable NameTags instance;
-    private final HashMap<String, ConfigurationSection> groups = new HashMap<>();
-    private @Nullable Executor executor = null;
+    private final HashMap<String, ConfigurationSection> groups = new LinkedHashMap<>();
+    private final GroupResolver groupResolver = new GroupResolver();
+    private final RelationalPlaceholderCache relationalPlaceholderCache = new RelationalPlaceholderCache();
+    private final OutboundPacketQueue outboundQueue = new OutboundPacketQueue();
+    private @NotNull TextDisplayStyle defaultStyle = TextDisplayStyle.EMPTY;
+    private @NotNull List<LodTier> lodTiers = List.of();
+    private @Nullable ExecutorService executor = null;
+    private boolean virtualThreads = false;
+    private @Nullable KeyedSerialExecutor<UUID> viewerExecutor = null;
     private @NotNull TextFormatter formatter = TextFormatter.MINI_MESSAGE;
     private NameTagEntityManager entityManager;
     private EventsListener eventsListener;
@@ -60,12 +82,29 @@ public class NameTags extends JavaPlugin {
         metrics = new Metrics(this, 25409);
         registerMetrics();
 
-        executor = Executors.newFixedThreadPool(
-                getConfig().getInt("options.threads", 2),
-                new ThreadFactoryBuilder()
-                        .setPriority(Thread.NORM_PRIORITY + 1)
-                        .setNameFormat("NameTags-Processor")
-                        .build());
+        virtualThreads = getConfig().getString("options.executor", "platform").equalsIgnoreCase("virtual");
+
+        if (virtualThreads) {
+            // Placeholders can block, so virtual threads stop one slow expansion holding up every tag
+            executor = Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual()
+                            .name("NameTags-Processor-", 0)
+                            .factory());
+        } else {
+            executor = Executors.newFixedThreadPool(
+                    getConfig().getInt("options.threads", 2),
+                    new ThreadFactoryBuilder()
+                            .setPriority(Thread.NORM_PRIORITY + 1)
+                            .setNameFormat("NameTags-Processor")
+                            .build());
+        }
+        getLogger().info("Using " + (virtualThreads ? "virtual" : "platform") + " threads for processing.");
+        viewerExecutor = new KeyedSerialExecutor<>(executor, getLogger());
+        registerGauges();
+
+        entityManager.getRefreshScheduler().start(this);
+        entityManager.start(this);
+        outboundQueue.start(this);
 
         SpigotEntityLibPlatform platform = new SpigotEntityLibPlatform(this);
         APIConfig settings = new APIConfig(PacketEvents.getAPI()).usePlatformLogger();
@@ -82,6 +121,7 @@ public class NameTags extends JavaPlugin {
         VanishEventListener.inject(this);
 
         Bukkit.getPluginManager().registerEvents(eventsListener, this);
+        Bukkit.getPluginManager().registerEvents(groupResolver, this);
         Bukkit.getScheduler().runTaskLater(this, DependencyVersionChecker::checkPacketEventsVersion, 10L);
 
         Objects.requireNonNull(Bukkit.getPluginCommand("nametags")).setExecutor(new NameTagsCommand(this));
@@ -95,7 +135,31 @@ public class NameTags extends JavaPlugin {
     public void reloadConfig() {
         super.reloadConfig();
 
+        String textFormatterIdentifier = getConfig().getString("formatter", "minimessage");
+        formatter = TextFormatter.getById(textFormatterIdentifier)
+                .orElse(TextFormatter.MINI_MESSAGE);
+
+        getLogger().info("Using " + formatter.name() + " as text formatter.");
+
+        TextFormatter.getCache().reload(getConfig().getLong("options.component-cache.max-size", 2000L));
+
+        PapiHook.setConcurrencyLimit(getConfig().getInt("options.max-concurrent-placeholders", 16));
+        PapiHook.getValueCache().reload(getConfig().getConfigurationSection("placeholders"));
+
+        relationalPlaceholderCache.reload(
+                Duration.ofMillis(getConfig().getLong("options.relational-cache.expire-after", 1000L)),
+                getConfig().getLong("options.relational-cache.max-size", 10_000L));
+
+        lodTiers = LodTier.compile(
+                getConfig().getConfigurationSection("lod"),
+                formatter,
+                getConfig().getBoolean("defaults.remove-empty-lines", false));
+
         ConfigurationSection defaults = getConfig().getConfigurationSection("defaults");
+        defaultStyle = defaults == null
+                ? TextDisplayStyle.EMPTY
+                : Objects.requireNonNullElse(compileStyle(defaults), TextDisplayStyle.EMPTY);
+
         if (defaults != null && defaults.getBoolean("enabled")) {
             getLogger().info("Using default behaviour from the config file.");
 
@@ -107,21 +171,18 @@ public class NameTags extends JavaPlugin {
             Bukkit.getPluginManager().registerEvents(defaultsListener, this);
         }
 
-        String textFormatterIdentifier = getConfig().getString("formatter", "minimessage");
-        formatter = TextFormatter.getById(textFormatterIdentifier)
-                .orElse(TextFormatter.MINI_MESSAGE);
-
-        getLogger().info("Using " + formatter.name() + " as text formatter.");
-
         for (String permissionNode : groups.keySet()) {
             Bukkit.getPluginManager().removePermission(permissionNode);
         }
         groups.clear();
 
+        final HashMap<String, TextDisplayStyle> groupStyles = new HashMap<>();
         ConfigurationSection groups = getConfig().getConfigurationSection("groups");
 
-        if (groups == null)
+        if (groups == null) {
+            groupResolver.reload(this.groups, groupStyles);
             return;
+        }
 
         for (String key : groups.getKeys(false)) {
             String permissionNode = "nametags.groups." + key;
@@ -130,10 +191,46 @@ public class NameTags extends JavaPlugin {
             if (sub == null)
                 continue;
 
+            TextDisplayStyle style = compileStyle(sub);
+
+            if (style == null)
+                continue;
+
             this.groups.put(permissionNode, sub);
+            groupStyles.put(permissionNode, style);
 
             Bukkit.getPluginManager().addPermission(new Permission(permissionNode));
         }
+
+        groupResolver.reload(this.groups, groupStyles);
+    }
+
+    private @Nullable TextDisplayStyle compileStyle(@NotNull ConfigurationSection section) {
+        try {
+            return TextDisplayStyle.compile(section);
+        } catch (IllegalArgumentException error) {
+            getLogger().warning("Ignoring section '" + section.getCurrentPath() + "': " + error.getMessage());
+            return null;
+        }
+    }
+
+    private void registerGauges() {
+        NameTagsMetrics.gauge("executor.queued", () -> {
+            int queued = getViewerExecutor().getQueuedCount();
+
+            if (executor instanceof ThreadPoolExecutor pool) {
+                queued += pool.getQueue().size();
+            }
+
+            return queued;
+        });
+        NameTagsMetrics.gauge("registry.size", () -> entityManager.getCacheSize());
+        NameTagsMetrics.gauge("cache.component.hit-rate", () -> TextFormatter.getCache().getStats().hitRate());
+        NameTagsMetrics.gauge("cache.relational.hit-rate", () -> relationalPlaceholderCache.getStats().hitRate());
+        NameTagsMetrics.gauge("attach.pending", () -> entityManager.getPendingAttachments().size());
+        NameTagsMetrics.gauge("outbound.pending", () -> outboundQueue.getPendingCount());
+        NameTagsMetrics.gauge("refresh.suspended", RefreshTrait::getSuspendedCount);
+        NameTagsMetrics.gauge("refresh.scheduled", () -> entityManager.getRefreshScheduler().getScheduledCount());
     }
 
     public void registerMetrics() {
@@ -145,6 +242,14 @@ public class NameTags extends JavaPlugin {
     public void onDisable() {
         metrics.shutdown();
 
+        entityManager.getRefreshScheduler().stop();
+        entityManager.stop();
+        outboundQueue.stop();
+
+        if (executor != null) {
+            executor.shutdown();
+        }
+
         HandlerList.unregisterAll(this.eventsListener);
 
         PacketEvents.getAPI()
@@ -160,14 +265,60 @@ public class NameTags extends JavaPlugin {
         return this.executor;
     }
 
+    /**
+     * Runs tasks for the same viewer in the order they were submitted, use this
+     * for anything that sends packets so they can't arrive out of order.
+     */
+    public @NotNull KeyedSerialExecutor<UUID> getViewerExecutor() {
+        if (this.viewerExecutor == null) {
+            throw new RuntimeException("Executor is not available until the plugin has initialized.");
+        }
+
+        return this.viewerExecutor;
+    }
+
+    /**
+     * @return True if the processor runs on virtual threads, false for a fixed pool.
+     */
+    public boolean isUsingVirtualThreads() {
+        return this.virtualThreads;
+    }
+
+    public @NotNull OutboundPacketQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    public @Nullable ConfigDefaultsListener getDefaultsListener() {
+        return defaultsListener;
+    }
+
     public @NotNull NameTagEntityManager getEntityManager() {
         return this.entityManager;
     }
 
+    public @NotNull RelationalPlaceholderCache getRelationalPlaceholderCache() {
+        return this.relationalPlaceholderCache;
+    }
+
     public HashMap<String, ConfigurationSection> getGroups() {
         return groups;
     }
 
+    /**
+     * @return The level of detail tiers ordered by distance, empty if disabled.
+     */
+    public @NotNull List<LodTier> getLodTiers() {
+        return lodTiers;
+    }
+
+    public @NotNull TextDisplayStyle getDefaultStyle() {
+        return this.defaultStyle;
+    }
+
+    public @NotNull GroupResolver getGroupResolver() {
+        return this.groupResolver;
+    }
+
     public @NotNull TextFormatter getFormatter() {
         return this.formatter;
     }
@@ -1,7 +1,18 @@
 package com.mattmx.nametags;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.mattmx.nametags.config.ComponentCache;
+import com.mattmx.nametags.config.ConfigDefaultsListener;
+import com.mattmx.nametags.config.LodTier;
+import com.mattmx.nametags.config.TextFormatter;
 import com.mattmx.nametags.entity.NameTagEntity;
+import com.mattmx.nametags.entity.RefreshScheduler;
+import com.mattmx.nametags.entity.trait.RefreshTrait;
+import com.mattmx.nametags.hook.PapiHook;
+import com.mattmx.nametags.hook.PlaceholderValueCache;
+import com.mattmx.nametags.hook.RelationalPlaceholderCache;
 import com.mattmx.nametags.hook.VanishHook;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.event.HoverEvent;
 import net.kyori.adventure.text.format.NamedTextColor;
@@ -16,6 +27,9 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 public class NameTagsCommand implements CommandExecutor, TabCompleter {
     private final @NotNull NameTags plugin;
@@ -34,8 +48,9 @@ public class NameTagsCommand implements CommandExecutor, TabCompleter {
         }
 
         if (args[0].equalsIgnoreCase("reload")) {
-            reload();
-            sender.sendMessage(Component.text("Reloaded!").color(NamedTextColor.GREEN));
+            reload().thenAccept((result) -> sender.sendMessage(Component.text("Reloaded! Updated "
+                    + result.updated() + " of " + result.total() + " tags (" + result.packets() + " packets).")
+                    .color(NamedTextColor.GREEN)));
         } else if (args[0].equalsIgnoreCase("toggle")) {
             if (!sender.hasPermission("nametags.admin.toggle")) {
                 sender.sendMessage(
@@ -77,21 +92,16 @@ public class NameTagsCommand implements CommandExecutor, TabCompleter {
                     }
 
                     // Re-add viewers and send passenger packets
-                    for (final Player viewer : Bukkit.getOnlinePlayers()) {
+                    for (final Player viewer : tag.getTrackingPlayers()) {
                         if (viewer.equals(target) && !plugin.getConfig().getBoolean("show-self", false)) {
                             continue;
                         }
-                        if (!viewer.getWorld().equals(target.getWorld())) {
-                            continue;
-                        }
                         // Skip if target is vanished from this viewer
                         if (!VanishHook.canSee(viewer, target)) {
                             continue;
                         }
-                        tag.getPassenger().addViewer(viewer.getUniqueId());
-                        tag.sendPassengerPacket(viewer);
+                        tag.show(viewer);
                     }
-                    tag.getPassenger().refresh();
                 }
             }
 
@@ -99,10 +109,27 @@ public class NameTagsCommand implements CommandExecutor, TabCompleter {
                     .text(target.getName() + "'s nametag is now " + (nowDisabled ? "disabled" : "enabled") + ".")
                     .color(nowDisabled ? NamedTextColor.RED : NamedTextColor.GREEN));
             return true;
+        } else if (args[0].equalsIgnoreCase("debug") && args.length > 1 && args[1].equalsIgnoreCase("metrics")) {
+            sender.sendMessage(
+                    Component.text("NameTags metrics")
+                            .appendNewline()
+                            .append(Component.text(String.join("\n", NameTagsMetrics.report()))
+                                    .color(NamedTextColor.WHITE))
+                            .color(NamedTextColor.GOLD));
         } else if (args[0].equalsIgnoreCase("debug")) {
             sender.sendMessage(
                     Component.text("NameTags debug")
                             .appendNewline()
+                            .append(
+                                    Component
+                                            .text("Executor: " + (plugin.isUsingVirtualThreads() ? "virtual" : "platform")
+                                                    + " threads, placeholders " + NameTagsMetrics.PLACEHOLDERS.getCount()
+                                                    + " calls, " + TimeUnit.NANOSECONDS.toMicros(
+                                                            NameTagsMetrics.PLACEHOLDERS.getMeanNanos())
+                                                    + "µs avg, " + NameTagsMetrics.PLACEHOLDERS_LIMITED.get()
+                                                    + " waited for limit of " + PapiHook.getConcurrencyLimit())
+                                            .color(NamedTextColor.WHITE))
+                            .appendNewline()
                             .append(
                                     Component.text("Total NameTags: " + plugin.getEntityManager().getCacheSize())
                                             .hoverEvent(HoverEvent.showText(
@@ -114,13 +141,115 @@ public class NameTagsCommand implements CommandExecutor, TabCompleter {
                                                                     + plugin.getEntityManager().getEntityIdMapSize()))
                                                             .appendNewline()
                                                             .append(Component.text("By Passenger ID: " + plugin
-                                                                    .getEntityManager().getPassengerIdMapSize()))))
+                                                                    .getEntityManager().getPassengerIdMapSize()))
+                                                            .appendNewline()
+                                                            .append(Component.text("By Viewer: " + plugin
+                                                                    .getEntityManager().getViewerIndexSize()))))
+                                            .color(NamedTextColor.WHITE))
+                            .appendNewline()
+                            .append(
+                                    Component
+                                            .text("Cached passengers: "
+                                                    + plugin.getEntityManager().getCachedPassengersCount())
                                             .color(NamedTextColor.WHITE))
                             .appendNewline()
                             .append(
                                     Component
-                                            .text("Cached last sent passengers: "
-                                                    + plugin.getEntityManager().getLastSentPassengersSize())
+                                            .text("Level of detail: " + describeLevelOfDetail())
+                                            .color(NamedTextColor.WHITE))
+                            .appendNewline()
+                            .append(
+                                    Component
+                                            .text("Group cache: " + plugin.getGroupResolver().getHits() + " hits, "
+                                                    + plugin.getGroupResolver().getMisses() + " recomputes ("
+                                                    + plugin.getGroupResolver().getCacheSize() + " players)")
+                                            .color(NamedTextColor.WHITE))
+                            .appendNewline()
+                            .append(
+                                    Component
+                                            .text("Metadata packets: " + plugin.getEntityManager().getMetadataPacketsSent()
+                                                    + " sent, " + plugin.getEntityManager().getMetadataPacketsSuppressed()
+                                                    + " suppressed")
+                                            .color(NamedTextColor.WHITE))
+                            .appendNewline()
+                            .append(
+                                    Component
+                                            .text("Relational cache: " + relationalCacheStats())
+                                            .color(NamedTextColor.WHITE))
+                            .appendNewline()
+                            .append(
+                                    Component
+                                            .text("Placeholder cache: " + placeholderCacheStats())
+                                            .color(NamedTextColor.WHITE))
+                            .appendNewline()
+                            .append(
+                                    Component
+                                            .text("Component cache: " + componentCacheStats())
+                                            .color(NamedTextColor.WHITE))
+                            .appendNewline()
+                            .append(
+                                    Component
+                                            .text("Viewer lanes: " + plugin.getViewerExecutor().getLanes().size()
+                                                    + " lanes, " + plugin.getViewerExecutor().getQueuedCount()
+                                                    + " queued")
+                                            .hoverEvent(HoverEvent.showText(Component.text(String.join("\n",
+                                                    plugin.getViewerExecutor()
+                                                            .getLanes()
+                                                            .entrySet()
+                                                            .stream()
+                                                            .map((entry) -> entry.getKey() + ": "
+                                                                    + entry.getValue().getQueueDepth() + " queued (max "
+                                                                    + entry.getValue().getMaxQueueDepth() + "), wait "
+                                                                    + TimeUnit.NANOSECONDS.toMicros(
+                                                                            entry.getValue().getAverageWaitNanos())
+                                                                    + "µs avg, "
+                                                                    + TimeUnit.NANOSECONDS.toMicros(
+                                                                            entry.getValue().getMaxWaitNanos())
+                                                                    + "µs max")
+                                                            .toList()))))
+                                            .color(NamedTextColor.WHITE))
+                            .appendNewline()
+                            .append(
+                                    Component
+                                            .text("Outbound queues: " + plugin.getOutboundQueue().getQueues().size()
+                                                    + " viewers, " + plugin.getOutboundQueue().getPendingCount()
+                                                    + " pending")
+                                            .hoverEvent(HoverEvent.showText(Component.text(String.join("\n",
+                                                    plugin.getOutboundQueue()
+                                                            .getQueues()
+                                                            .entrySet()
+                                                            .stream()
+                                                            .map((entry) -> entry.getKey() + ": "
+                                                                    + entry.getValue().getFlushCount() + " flushes, "
+                                                                    + entry.getValue().getPacketCount() + " packets in "
+                                                                    + entry.getValue().getBundleCount() + " bundles (max "
+                                                                    + entry.getValue().getMaxBatchSize() + " per flush)")
+                                                            .toList()))))
+                                            .color(NamedTextColor.WHITE))
+                            .appendNewline()
+                            .append(
+                                    Component.text("Refresh buckets:")
+                                            .appendNewline()
+                                            .append(
+                                                    Component.text(
+                                                            String.join("\n",
+                                                                    plugin.getEntityManager()
+                                                                            .getRefreshScheduler()
+                                                                            .getBuckets()
+                                                                            .stream()
+                                                                            .map((bucket) -> " - every "
+                                                                                    + bucket.getPeriodTicks()
+                                                                                            * RefreshScheduler.TICK_MILLIS
+                                                                                    + "ms: " + bucket.size()
+                                                                                    + " tags, lag "
+                                                                                    + bucket.getLastLagMillis()
+                                                                                    + "ms (max "
+                                                                                    + bucket.getMaxLagMillis()
+                                                                                    + "ms), batch "
+                                                                                    + TimeUnit.NANOSECONDS.toMicros(
+                                                                                            bucket.getLastBatchNanos())
+                                                                                    + "µs")
+                                                                            .toList())))
                                             .color(NamedTextColor.WHITE))
                             .appendNewline()
                             .append(
@@ -144,59 +273,215 @@ public class NameTagsCommand implements CommandExecutor, TabCompleter {
         return false;
     }
 
-    private void reload() {
-        for (final Player player : Bukkit.getOnlinePlayers()) {
-            final NameTagEntity tag = plugin.getEntityManager().getNameTagEntity(player);
+    private @NotNull String componentCacheStats() {
+        final ComponentCache cache = TextFormatter.getCache();
 
-            if (tag != null) {
-                tag.getTraits().destroy();
+        if (!cache.isEnabled()) {
+            return "disabled";
+        }
+
+        final CacheStats stats = cache.getStats();
+        return String.format("%.1f%% hit rate, %d entries (~%d KB)",
+                stats.hitRate() * 100, cache.getSize(), cache.estimateBytes() / 1024);
+    }
+
+    private @NotNull String placeholderCacheStats() {
+        final PlaceholderValueCache cache = PapiHook.getValueCache();
+
+        return cache.getHits() + " hits, " + cache.getMisses() + " misses ("
+                + cache.getSize() + " values)";
+    }
+
+    private @NotNull String relationalCacheStats() {
+        final RelationalPlaceholderCache cache = plugin.getRelationalPlaceholderCache();
+
+        if (!cache.isEnabled()) {
+            return "disabled";
+        }
+
+        final CacheStats stats = cache.getStats();
+        return stats.hitCount() + " hits, " + stats.missCount() + " misses ("
+                + cache.getSize() + " entries)";
+    }
+
+    private @NotNull String describeLevelOfDetail() {
+        final List<LodTier> tiers = plugin.getLodTiers();
+
+        if (tiers.isEmpty()) {
+            return "disabled";
+        }
+
+        final int[] viewers = new int[tiers.size()];
+        int deferred = 0;
+
+        for (final NameTagEntity tag : plugin.getEntityManager().getAllEntities()) {
+            final int[] counts = tag.getLevelOfDetail().getTierCounts(tiers.size());
+            for (int i = 0; i < counts.length; i++) {
+                viewers[i] += counts[i];
             }
+            deferred += tag.getLevelOfDetail().getDeferredViewers();
         }
 
+        final List<String> parts = new ArrayList<>(tiers.size());
+        for (int i = 0; i < tiers.size(); i++) {
+            parts.add(tiers.get(i).name() + " " + viewers[i]);
+        }
+
+        return String.join(", ", parts) + " viewers, " + deferred + " waiting on an update";
+    }
+
+    /**
+     * Reloads the config and applies it to the existing tags. Passengers are kept,
+     * so viewers only receive the metadata indices that changed. Styles are applied
+     * on the main thread, placeholders and formatting run on the plugin executor.
+     * The result completes once every tag was updated.
+     */
+    private @NotNull CompletableFuture<ReloadResult> reload() {
+        final boolean previousShowSelf = plugin.getConfig().getBoolean("show-self", false);
+
         this.plugin.reloadConfig();
 
         final boolean showSelf = plugin.getConfig().getBoolean("show-self", false);
+        final long refreshMillis = plugin.getConfig().getLong("defaults.refresh-every", 50);
+        final ConfigDefaultsListener defaultsListener = plugin.getDefaultsListener();
+        final List<CompletableFuture<Integer>> updates = new ArrayList<>();
+        int created = 0;
+        int createdPackets = 0;
 
         for (final Player player : Bukkit.getOnlinePlayers()) {
-            final NameTagEntity tag = plugin.getEntityManager().removeEntity(player);
+            final NameTagEntity tag = plugin.getEntityManager().getNameTagEntity(player);
 
-            if (tag != null) {
-                tag.destroy();
+            if (tag == null) {
+                createdPackets += createNameTag(player, showSelf);
+                created++;
+                continue;
             }
 
-            final NameTagEntity newTag = plugin.getEntityManager().getOrCreateNameTagEntity(player);
+            if (refreshMillis == 0L) {
+                tag.getTraits().removeTrait(RefreshTrait.class);
+            } else if (defaultsListener != null) {
+                // Does nothing if the tag already refreshes, the period is updated below instead
+                defaultsListener.registerDefaultRefreshListener(tag, refreshMillis);
+            }
 
-            // Add all online players in the same world as viewers
-            for (final Player viewer : Bukkit.getOnlinePlayers()) {
-                if (viewer.equals(player) && !showSelf) {
-                    continue; // Skip self unless show-self is enabled
+            int selfPackets = 0;
+            if (showSelf != previousShowSelf && tag.getPassenger().isSpawned()) {
+                if (showSelf) {
+                    tag.show(player);
+                    selfPackets = 3;
+                } else {
+                    tag.removeViewer(player.getUniqueId());
+                    selfPackets = 1;
                 }
+            }
 
-                if (!viewer.getWorld().equals(player.getWorld())) {
-                    continue; // Skip players in different worlds
-                }
+            final int sentOnMain = selfPackets + applyConfig(tag, player, defaultsListener);
+            updates.add(CompletableFuture
+                    .supplyAsync(() -> refreshText(tag), plugin.getExecutor())
+                    .thenApply((sent) -> sent + sentOnMain));
+        }
+
+        final int total = created + updates.size();
+        final int initialUpdated = created;
+        final int initialPackets = createdPackets;
+
+        return CompletableFuture.allOf(updates.toArray(CompletableFuture[]::new))
+                .thenApply((ignored) -> {
+                    int updated = initialUpdated;
+                    int packets = initialPackets;
 
-                // Skip if player is vanished and viewer can't see them
-                if (!VanishHook.canSee(viewer, player)) {
-                    continue;
+                    for (final CompletableFuture<Integer> update : updates) {
+                        final int sent = update.join();
+
+                        if (sent > 0) {
+                            updated++;
+                            packets += sent;
+                        }
+                    }
+
+                    return new ReloadResult(updated, total, packets);
+                });
+    }
+
+    /**
+     * Resets the tag's style and applies the reloaded one on the main thread, since
+     * it reads the player's permissions and effects. Nested so only the indices
+     * that changed are sent. Paused or suspended tags get their style back here
+     * too, their refresh may not run until much later.
+     *
+     * @return How many packets were sent.
+     */
+    private int applyConfig(@NotNull NameTagEntity tag, @NotNull Player player,
+            @Nullable ConfigDefaultsListener defaultsListener) {
+        try {
+            return tag.modifyAndSend((meta) -> {
+                tag.resetMeta();
+                plugin.getEntityManager().applyDefaults(tag);
+
+                if (defaultsListener != null) {
+                    defaultsListener.applyStyle(tag, player);
                 }
 
-                // Update location before adding viewers to ensure correct position
-                newTag.updateLocation();
+                tag.updateVisibility();
+            });
+        } catch (Throwable error) {
+            plugin.getLogger().log(Level.WARNING, "Failed to reload name tag", error);
+            return 0;
+        }
+    }
+
+    /**
+     * Runs the tag's refresh so the text and refresh period follow the reloaded config,
+     * called on the plugin executor since it resolves placeholders.
+     *
+     * @return How many packets were sent.
+     */
+    private int refreshText(@NotNull NameTagEntity tag) {
+        final RefreshTrait refresh = tag.getTraits().getTraitOrNull(RefreshTrait.class);
+
+        if (refresh == null)
+            return 0;
+
+        try {
+            return tag.modifyAndSend((meta) -> refresh.run());
+        } catch (Throwable error) {
+            plugin.getLogger().log(Level.WARNING, "Failed to reload name tag", error);
+            return 0;
+        }
+    }
+
+    /**
+     * Creates a tag for a player that didn't have one yet and shows it to everyone in range.
+     *
+     * @return How many packets were sent.
+     */
+    private int createNameTag(@NotNull Player player, boolean showSelf) {
+        final NameTagEntity tag = plugin.getEntityManager().getOrCreateNameTagEntity(player);
+        int packets = 0;
+
+        // Update location before adding viewers to ensure correct position
+        tag.updateLocation();
 
-                // Remove and re-add viewer to ensure spawn packets are sent fresh
-                // (mirrors the behavior in
-                // PlayServerSpawnEntityHandler.attachPassengerToEntity)
-                newTag.getPassenger().removeViewer(viewer.getUniqueId());
-                newTag.getPassenger().addViewer(viewer.getUniqueId());
-                newTag.sendPassengerPacket(viewer);
+        for (final Player viewer : tag.getTrackingPlayers()) {
+            if (viewer.equals(player) && !showSelf) {
+                continue; // Skip self unless show-self is enabled
             }
 
-            newTag.updateVisibility();
-            // Refresh to send metadata to viewers immediately (fixes invisible nametags
-            // after reload)
-            newTag.getPassenger().refresh();
+            // Skip if player is vanished and viewer can't see them
+            if (!VanishHook.canSee(viewer, player)) {
+                continue;
+            }
+
+            tag.show(viewer);
+            packets += 3;
         }
+
+        tag.updateVisibility();
+
+        return packets;
+    }
+
+    private record ReloadResult(int updated, int total, int packets) {
     }
 
     @Override
@@ -214,6 +499,8 @@ public class NameTagsCommand implements CommandExecutor, TabCompleter {
                 }
             }
             return completions;
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("debug")) {
+            return "metrics".startsWith(args[1].toLowerCase()) ? List.of("metrics") : List.of();
         } else if (args.length == 2 && args[0].equalsIgnoreCase("toggle")) {
             if (!sender.hasPermission("nametags.admin.toggle")) {
                 return List.of();
@@ -35,10 +35,15 @@ public class OutgoingPacketListener extends PacketListenerAbstract {
                 for (int entityId : packet.getEntityIds()) {
                     NameTagEntity nameTagEntity = plugin.getEntityManager().getNameTagEntityById(entityId);
 
-                    if (nameTagEntity == null)
+                    if (nameTagEntity == null) {
+                        // Don't attach a tag to an entity the viewer can no longer see
+                        plugin.getEntityManager()
+                                .getPendingAttachments()
+                                .removeViewer(entityId, event.getUser().getUUID());
                         continue;
+                    }
 
-                    nameTagEntity.getPassenger().removeViewer(event.getUser());
+                    nameTagEntity.removeViewer(event.getUser());
                 }
             }
             case PacketType.Play.Server.ENTITY_EFFECT -> {
@@ -73,11 +78,10 @@ public class OutgoingPacketListener extends PacketListenerAbstract {
 
                 // Add the viewer if they don't already have the nametag
                 // (e.g., if the entity was invisible when they first spawned it)
-                event.getTasksAfterSend().add(() -> plugin.getExecutor().execute(() -> {
+                event.getTasksAfterSend().add(() -> plugin.getViewerExecutor().execute(event.getUser().getUUID(), () -> {
                     if (!nameTagEntity.getPassenger().getViewers().contains(event.getUser().getUUID())) {
                         nameTagEntity.updateLocation();
-                        nameTagEntity.getPassenger().addViewer(event.getUser());
-                        event.getUser().sendPacket(nameTagEntity.getPassengersPacket());
+                        nameTagEntity.show(event.getUser());
                     }
                 }));
             }
@@ -0,0 +1,105 @@
+package com.mattmx.nametags.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * Remembers the component each {@link TextFormatter} produced for a line.
+ * <p>
+ * Resolved lines like {@code <white>Steve</white>} repeat across players and
+ * refreshes, and components are immutable, so the same instance can be handed
+ * out every time instead of parsing the line again.
+ */
+public class ComponentCache {
+    // Rough sizes used for the memory estimate, the real size depends on the JVM
+    private static final long ENTRY_OVERHEAD_BYTES = 96L;
+    private static final long COMPONENT_OVERHEAD_BYTES = 64L;
+
+    private volatile @Nullable Cache<Key, Component> cache = null;
+
+    /**
+     * Replaces the cache, dropping every entry.
+     *
+     * @param maximumSize The maximum amount of lines to keep, zero disables the cache.
+     */
+    public void reload(long maximumSize) {
+        if (maximumSize <= 0) {
+            this.cache = null;
+            return;
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return The cached component for the line, formatting it if it wasn't cached.
+     */
+    public @NotNull Component get(@NotNull TextFormatter formatter, @NotNull String line) {
+        final Cache<Key, Component> cache = this.cache;
+
+        if (cache == null) {
+            return formatter.parse(line);
+        }
+
+        return cache.get(new Key(formatter, line), (key) -> formatter.parse(line));
+    }
+
+    public boolean isEnabled() {
+        return this.cache != null;
+    }
+
+    public long getSize() {
+        final Cache<Key, Component> cache = this.cache;
+        return cache == null ? 0L : cache.estimatedSize();
+    }
+
+    public @NotNull CacheStats getStats() {
+        final Cache<Key, Component> cache = this.cache;
+        return cache == null ? CacheStats.empty() : cache.stats();
+    }
+
+    /**
+     * Walks every entry, so only meant for debug output.
+     *
+     * @return A rough estimate of the memory used by the cached lines and components.
+     */
+    public long estimateBytes() {
+        final Cache<Key, Component> cache = this.cache;
+
+        if (cache == null)
+            return 0L;
+
+        long bytes = 0L;
+        for (final Map.Entry<Key, Component> entry : cache.asMap().entrySet()) {
+            bytes += ENTRY_OVERHEAD_BYTES + entry.getKey().line().length() * 2L + estimateBytes(entry.getValue());
+        }
+        return bytes;
+    }
+
+    private static long estimateBytes(@NotNull Component component) {
+        long bytes = COMPONENT_OVERHEAD_BYTES;
+
+        if (component instanceof TextComponent text) {
+            bytes += text.content().length() * 2L;
+        }
+
+        for (final Component child : component.children()) {
+            bytes += estimateBytes(child);
+        }
+
+        return bytes;
+    }
+
+    private record Key(@NotNull TextFormatter formatter, @NotNull String line) {
+    }
+}
@@ -4,17 +4,16 @@ import com.mattmx.nametags.NameTags;
 import com.mattmx.nametags.entity.NameTagEntity;
 import com.mattmx.nametags.entity.trait.RefreshTrait;
 import com.mattmx.nametags.entity.trait.SneakTrait;
+import com.mattmx.nametags.entity.trait.TextTemplateTrait;
 import com.mattmx.nametags.event.NameTagEntityCreateEvent;
 import me.tofaa.entitylib.meta.display.AbstractDisplayMeta;
-import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class ConfigDefaultsListener implements Listener {
     private final @NotNull NameTags plugin;
@@ -28,44 +27,42 @@ public class ConfigDefaultsListener implements Listener {
                     meta.setUseDefaultBackground(false);
                     meta.setTransformationInterpolationDuration(5);
                     meta.setPositionRotationInterpolationDuration(5);
-                    TextDisplayMetaConfiguration.applyMeta(defaultSection(), meta);
+                    plugin.getDefaultStyle().apply(meta);
                 }));
     }
 
-    private @Nullable ConfigurationSection defaultSection() {
-        return plugin.getConfig().getConfigurationSection("defaults");
-    }
-
     @EventHandler
     public void onCreate(@NotNull NameTagEntityCreateEvent event) {
         if (!(event.getNameTag().getBukkitEntity() instanceof Player player))
             return;
 
-        // By default, we shouldn't notify until we have finished processing.
-        event.getNameTag()
-                .getPassenger()
-                .getEntityMeta()
-                .setNotifyAboutChanges(false);
-
         long refreshMillis = plugin.getConfig().getLong("defaults.refresh-every", 50);
 
         if (refreshMillis == 0L) {
-            // Re-enable notifications when not using refresh trait
-            event.getNameTag()
-                    .getPassenger()
-                    .getEntityMeta()
-                    .setNotifyAboutChanges(true);
             return;
         }
 
         registerDefaultRefreshListener(event.getNameTag(), refreshMillis);
+    }
+
+    /**
+     * Applies the default style, the style of the player's group on top and the
+     * sneaking opacity, without touching the text. Must be called on the main thread.
+     */
+    public void applyStyle(@NotNull NameTagEntity tag, @NotNull Player player) {
+        GroupResolver.Group group = plugin.getGroupResolver().resolve(player);
+
+        tag.modify((meta) -> {
+            plugin.getDefaultStyle().apply(meta);
 
-        // Re-enable notifications after setup is complete - this flushes pending
-        // changes
-        event.getNameTag()
-                .getPassenger()
-                .getEntityMeta()
-                .setNotifyAboutChanges(true);
+            if (group != null) {
+                group.style().apply(meta);
+            }
+
+            tag.getTraits()
+                    .getTrait(SneakTrait.class)
+                    .ifPresent(SneakTrait::manuallyUpdateSneakingOpacity);
+        });
     }
 
     public void registerDefaultRefreshListener(@NotNull NameTagEntity tag, long refreshMillis) {
@@ -74,37 +71,44 @@ public class ConfigDefaultsListener implements Listener {
         tag.getTraits().getOrAddTrait(RefreshTrait.class, () -> RefreshTrait.ofMillis(
                 plugin,
                 refreshMillis,
-                (entity) -> {
-                    TextDisplayMetaConfiguration.applyMeta(defaultSection(), entity.getMeta());
-                    TextDisplayMetaConfiguration.applyTextMeta(defaultSection(), entity.getMeta(), player);
-
-                    // TODO we should cache this stuff
-                    List<Map.Entry<String, ConfigurationSection>> groups = plugin.getGroups()
-                            .entrySet()
-                            .stream()
-                            .filter((e) -> player.hasPermission(e.getKey()))
-                            .sorted(GroupPriorityComparator.get())
-                            .toList();
-
-                    long recentRefreshEvery = plugin.getConfig().getLong("defaults.refresh-every", 50);
-                    if (!groups.isEmpty()) {
-                        Map.Entry<String, ConfigurationSection> highest = groups.getLast();
-
-                        TextDisplayMetaConfiguration.applyMeta(highest.getValue(), entity.getMeta());
-                        TextDisplayMetaConfiguration.applyTextMeta(highest.getValue(), entity.getMeta(), player);
-
-                        long groupRefresh = highest.getValue().getLong("refresh-every", -1);
+                (entity) -> entity.modify((meta) -> {
+                    TextDisplayStyle defaults = plugin.getDefaultStyle();
+                    defaults.apply(meta);
+
+                    GroupResolver.Group group = plugin.getGroupResolver().resolve(player);
+
+                    long recentRefreshEvery = defaults.getRefreshEvery() < 0 ? 50 : defaults.getRefreshEvery();
+                    TextDisplayStyle highest = group == null ? null : group.style();
+
+                    // Only render the text that will actually be shown
+                    TextTemplate text = highest != null && !highest.getText().isEmpty()
+                            ? highest.getText()
+                            : defaults.getText();
+                    TextDisplayMetaConfiguration.applyTextMeta(text, entity, player);
+
+                    List<LodTier> tiers = plugin.getLodTiers();
+                    if (!tiers.isEmpty()) {
+                        entity.getLevelOfDetail().setTierTexts(entity.getTraits()
+                                .getOrAddTrait(TextTemplateTrait.class, TextTemplateTrait::new)
+                                .renderTiers(tiers, player));
+                    }
+
+                    if (highest != null) {
+                        highest.apply(meta);
+
+                        long groupRefresh = highest.getRefreshEvery();
                         if (groupRefresh > 0) {
                             recentRefreshEvery = groupRefresh;
                         }
                     }
 
-                    if (recentRefreshEvery != refreshMillis) {
-                        entity.getTraits().removeTrait(RefreshTrait.class);
-                        registerDefaultRefreshListener(tag, recentRefreshEvery);
+                    // Moves the tag to another bucket of the scheduler if the period changed
+                    RefreshTrait refreshTrait = entity.getTraits().getTraitOrNull(RefreshTrait.class);
+                    if (refreshTrait != null) {
+                        refreshTrait.setPeriod(recentRefreshEvery, TimeUnit.MILLISECONDS);
                     }
 
-                    if (entity.getMeta().getBillboardConstraints() == AbstractDisplayMeta.BillboardConstraints.CENTER) {
+                    if (meta.getBillboardConstraints() == AbstractDisplayMeta.BillboardConstraints.CENTER) {
                         // Look passenger down to remove debug getting in the way
                         entity.getPassenger().rotateHead(0f, 90f);
                     }
@@ -115,9 +119,9 @@ public class ConfigDefaultsListener implements Listener {
                             .getTrait(SneakTrait.class)
                             .ifPresent(SneakTrait::manuallyUpdateSneakingOpacity);
 
+                    // Nested in modify(...), so only one packet with the changed indices is sent
                     entity.updateVisibility();
-                    entity.getPassenger().refresh();
-                }));
+                })));
     }
 
 }
@@ -0,0 +1,179 @@
+package com.mattmx.nametags.config;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerCommandSendEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves the highest priority group a player has permission for.
+ * <p>
+ * Groups are sorted once when the config is loaded, and the result for each
+ * player is cached until something that could change their permissions
+ * happens: joining, changing world, a permission recalculation, or an explicit
+ * call to {@link #invalidate(UUID)}.
+ * <p>
+ * Bukkit has no event for permission recalculation, so
+ * {@link PlayerCommandSendEvent} is used instead. It is fired whenever the
+ * server re-sends a player's command tree, which permission plugins such as
+ * LuckPerms trigger after a player's permissions change. Not every plugin
+ * does, so results are also recomputed once they are older than their lifetime.
+ */
+public class GroupResolver implements Listener {
+    private static final @NotNull Group NONE = new Group("", "", Integer.MIN_VALUE, TextDisplayStyle.EMPTY);
+    // Bounds how long a missed permission change can go unnoticed
+    private static final long LIFETIME_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private volatile @NotNull List<Group> groups = List.of();
+    private volatile @NotNull ConcurrentHashMap<UUID, Cached> cache = new ConcurrentHashMap<>();
+    // Bumped by every invalidation, a result computed across one is not cached
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Replaces the known groups and clears every cached result.
+     *
+     * @param groups The groups keyed by permission node, in config order.
+     * @param styles The compiled style of each group, keyed by permission node.
+     */
+    public void reload(@NotNull Map<String, ConfigurationSection> groups,
+            @NotNull Map<String, TextDisplayStyle> styles) {
+        List<Map.Entry<String, ConfigurationSection>> entries = new ArrayList<>(groups.entrySet());
+
+        // Sort ascending then reverse so equal priorities keep the previous "last one wins" behaviour.
+        entries.sort(GroupPriorityComparator.get());
+        Collections.reverse(entries);
+
+        List<Group> sorted = new ArrayList<>(entries.size());
+        for (final Map.Entry<String, ConfigurationSection> entry : entries) {
+            TextDisplayStyle style = styles.get(entry.getKey());
+
+            if (style == null)
+                continue;
+
+            sorted.add(new Group(
+                    entry.getValue().getName(),
+                    entry.getKey(),
+                    entry.getValue().getInt("priority"),
+                    style));
+        }
+
+        this.groups = List.copyOf(sorted);
+        this.generation.incrementAndGet();
+        this.cache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param player The player to resolve.
+     * @return The highest priority group the player has, or null if they have none.
+     */
+    public @Nullable Group resolve(@NotNull Player player) {
+        final ConcurrentHashMap<UUID, Cached> cache = this.cache;
+        final long now = System.nanoTime();
+        final Cached cached = cache.get(player.getUniqueId());
+        final Group group;
+
+        if (cached != null && now - cached.computedAt() < LIFETIME_NANOS) {
+            hits.increment();
+            group = cached.group();
+        } else {
+            misses.increment();
+
+            final long generation = this.generation.get();
+            group = compute(player);
+
+            final Cached computed = new Cached(group, now);
+            cache.compute(player.getUniqueId(), (uuid, previous) -> this.generation.get() == generation ? computed : previous);
+        }
+
+        return group == NONE ? null : group;
+    }
+
+    private @NotNull Group compute(@NotNull Player player) {
+        for (final Group group : groups) {
+            if (player.hasPermission(group.permission())) {
+                return group;
+            }
+        }
+        return NONE;
+    }
+
+    public void invalidate(@NotNull UUID uuid) {
+        generation.incrementAndGet();
+        cache.remove(uuid);
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    public @NotNull List<Group> getGroups() {
+        return groups;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(@NotNull PlayerJoinEvent event) {
+        invalidate(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onChangeWorld(@NotNull PlayerChangedWorldEvent event) {
+        invalidate(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPermissionsRecalculated(@NotNull PlayerCommandSendEvent event) {
+        invalidate(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(@NotNull PlayerQuitEvent event) {
+        invalidate(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * A compiled group from the {@code groups} section of the config.
+     *
+     * @param key        The name of the group in the config.
+     * @param permission The permission node required for the group.
+     * @param priority   Higher priority groups win.
+     * @param style      The compiled style of the group.
+     */
+    public record Group(@NotNull String key, @NotNull String permission, int priority,
+            @NotNull TextDisplayStyle style) {
+    }
+
+    private record Cached(@NotNull Group group, long computedAt) {
+    }
+}
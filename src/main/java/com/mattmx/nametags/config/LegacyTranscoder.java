@@ -0,0 +1,149 @@
+package com.mattmx.nametags.config;
+
+import com.mattmx.nametags.NameTags;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Converts legacy colour codes to MiniMessage tags for {@link TextFormatter#SMART}
+ * in a single walk over the line.
+ * <p>
+ * Handles {@code &} and {@code §} codes, {@code &x&r&r&g&g&b&b} and
+ * {@code &#rrggbb} hex colours. Lines without either character are returned
+ * as they are.
+ */
+public final class LegacyTranscoder {
+    private static final String[] TAGS = new String[128];
+
+    static {
+        TAGS['0'] = "<black>";
+        TAGS['1'] = "<dark_blue>";
+        TAGS['2'] = "<dark_green>";
+        TAGS['3'] = "<dark_aqua>";
+        TAGS['4'] = "<dark_red>";
+        TAGS['5'] = "<dark_purple>";
+        TAGS['6'] = "<gold>";
+        TAGS['7'] = "<gray>";
+        TAGS['8'] = "<dark_gray>";
+        TAGS['9'] = "<blue>";
+        TAGS['a'] = "<green>";
+        TAGS['b'] = "<aqua>";
+        TAGS['c'] = "<red>";
+        TAGS['d'] = "<light_purple>";
+        TAGS['e'] = "<yellow>";
+        TAGS['f'] = "<white>";
+        TAGS['k'] = "<obf>";
+        TAGS['l'] = "<b>";
+        TAGS['m'] = "<st>";
+        TAGS['n'] = "<u>";
+        TAGS['o'] = "<i>";
+        TAGS['r'] = "<reset>";
+    }
+
+    private LegacyTranscoder() {
+    }
+
+    /**
+     * @param line The line to convert.
+     * @return The line with every legacy code replaced by its MiniMessage tag,
+     * or the same instance if there was nothing to convert.
+     */
+    public static @NotNull String toMiniMessage(@NotNull String line) {
+        final int length = line.length();
+        int first = -1;
+
+        for (int i = 0; i < length; i++) {
+            final char c = line.charAt(i);
+            if (c == '&' || c == NameTags.LEGACY_CHAR) {
+                first = i;
+                break;
+            }
+        }
+
+        if (first == -1) {
+            return line;
+        }
+
+        final StringBuilder builder = new StringBuilder(length + 16);
+        builder.append(line, 0, first);
+
+        int i = first;
+        while (i < length) {
+            if (at(line, i) != '&') {
+                builder.append(line.charAt(i++));
+                continue;
+            }
+
+            // &x&r&r&g&g&b&b
+            if (at(line, i + 1) == 'x' && isLegacyHex(line, i + 2)) {
+                builder.append("<#");
+                for (int digit = 0; digit < 6; digit++) {
+                    builder.append(line.charAt(i + 3 + digit * 2));
+                }
+                builder.append('>');
+                i += 14;
+                continue;
+            }
+
+            // &#rrggbb
+            if (at(line, i + 1) == '#' && isHex(line, i + 2, 6)) {
+                builder.append("<#").append(line, i + 2, i + 8).append('>');
+                i += 8;
+                continue;
+            }
+
+            final String tag = tag(at(line, i + 1));
+            if (tag != null) {
+                builder.append(tag);
+                i += 2;
+                continue;
+            }
+
+            // Any § that isn't part of a code is still written as &
+            builder.append('&');
+            i++;
+        }
+
+        return builder.toString();
+    }
+
+    private static @Nullable String tag(char code) {
+        return code < TAGS.length ? TAGS[code] : null;
+    }
+
+    private static boolean isLegacyHex(@NotNull String line, int start) {
+        for (int digit = 0; digit < 6; digit++) {
+            final int index = start + digit * 2;
+
+            if (at(line, index) != '&' || !isHexDigit(at(line, index + 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHex(@NotNull String line, int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            if (!isHexDigit(at(line, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    /**
+     * The character at the index with § read as &, or 0 past the end of the line.
+     */
+    private static char at(@NotNull String line, int index) {
+        if (index >= line.length()) {
+            return 0;
+        }
+
+        final char c = line.charAt(index);
+        return c == NameTags.LEGACY_CHAR ? '&' : c;
+    }
+}
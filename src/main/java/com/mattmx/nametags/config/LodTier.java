@@ -0,0 +1,121 @@
+package com.mattmx.nametags.config;
+
+import net.kyori.adventure.text.Component;
+import org.bukkit.Location;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A level of detail tier from the {@code lod} section of the config. Viewers
+ * up to {@code distance} blocks away from a tag receive its updates at most
+ * once per interval, and see the tier's text instead of the full text if it
+ * has one.
+ *
+ * @param name           The key of the tier in the config.
+ * @param distance       The furthest a viewer can be to use this tier.
+ * @param intervalNanos  The minimum time between updates, 0 for every update.
+ * @param text           The text to show instead, or null to show the full text.
+ */
+public record LodTier(@NotNull String name, double distance, long intervalNanos, @Nullable TextTemplate text) {
+
+    /**
+     * @return The tiers ordered by distance, or an empty list if the section is missing or disabled.
+     */
+    public static @NotNull List<LodTier> compile(@Nullable ConfigurationSection section, @NotNull TextFormatter formatter,
+            boolean removeEmptyLines) {
+        if (section == null || !section.getBoolean("enabled", false))
+            return List.of();
+
+        final ConfigurationSection tiers = section.getConfigurationSection("tiers");
+
+        if (tiers == null)
+            return List.of();
+
+        final List<LodTier> compiled = new ArrayList<>();
+
+        for (final String key : tiers.getKeys(false)) {
+            final ConfigurationSection tier = tiers.getConfigurationSection(key);
+
+            if (tier == null)
+                continue;
+
+            final List<String> lines = tier.getStringList("text");
+
+            compiled.add(new LodTier(
+                    key,
+                    tier.getDouble("distance", Double.MAX_VALUE),
+                    TimeUnit.MILLISECONDS.toNanos(Math.max(0L, tier.getLong("interval", 0L))),
+                    lines.isEmpty() ? null : TextTemplate.compile(lines, formatter, removeEmptyLines)));
+        }
+
+        compiled.sort(Comparator.comparingDouble(LodTier::distance));
+
+        return List.copyOf(compiled);
+    }
+
+    /**
+     * Finds the tier for a viewer, viewers beyond the last tier or in another world use the last tier.
+     *
+     * @param tiers  The tiers ordered by distance.
+     * @param viewer The viewer's location.
+     * @param origin The tag's location.
+     * @return The index of the tier.
+     */
+    public static int select(@NotNull List<LodTier> tiers, @NotNull Location viewer, @NotNull Location origin) {
+        final int last = tiers.size() - 1;
+
+        if (viewer.getWorld() != origin.getWorld())
+            return last;
+
+        // Compared squared so the tier can be picked on every update without a square root
+        final double distanceSquared = viewer.distanceSquared(origin);
+
+        for (int i = 0; i < last; i++) {
+            final double distance = tiers.get(i).distance();
+
+            if (distanceSquared <= distance * distance)
+                return i;
+        }
+
+        return last;
+    }
+
+    /**
+     * Renders the text of every tier that has one, reusing the previous render
+     * of lines that didn't change.
+     *
+     * @param states The previous render of each tier's text by index, replaced if it
+     *               belongs to a different template.
+     * @return The text for each tier by index, null for tiers that show the full text.
+     */
+    public static @Nullable Component @NotNull [] render(@NotNull List<LodTier> tiers, @NotNull Player self,
+            TextTemplate.@Nullable State @NotNull [] states) {
+        final Component[] rendered = new Component[tiers.size()];
+
+        for (int i = 0; i < rendered.length; i++) {
+            final TextTemplate text = tiers.get(i).text();
+
+            if (text == null)
+                continue;
+
+            if (states[i] == null || !states[i].isFor(text)) {
+                states[i] = text.newState();
+            }
+
+            rendered[i] = text.render(self, states[i]);
+        }
+
+        return rendered;
+    }
+
+    public boolean hasText() {
+        return text != null;
+    }
+}
@@ -0,0 +1,405 @@
+package com.mattmx.nametags.config;
+
+import com.github.retrooper.packetevents.util.Vector3f;
+import com.mattmx.nametags.NameTags;
+import me.tofaa.entitylib.meta.Metadata;
+import me.tofaa.entitylib.meta.display.AbstractDisplayMeta;
+import me.tofaa.entitylib.meta.display.TextDisplayMeta;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * An immutable, pre-parsed form of a {@code defaults} or {@code groups.<name>}
+ * config section.
+ * <p>
+ * Sections are compiled once in {@link NameTags#reloadConfig()} so that refreshing
+ * a tag only compares and copies primitive values into its {@link TextDisplayMeta}.
+ * Only keys that were present in the section are applied.
+ */
+public final class TextDisplayStyle {
+    public static final @NotNull TextDisplayStyle EMPTY = new TextDisplayStyle();
+
+    private static final float DEFAULT_GAP = 0.2f;
+
+    private static final int BACKGROUND = 1;
+    private static final int BILLBOARD = 1 << 1;
+    private static final int SEE_THROUGH = 1 << 2;
+    private static final int LINE_WIDTH = 1 << 3;
+    private static final int TEXT_OPACITY = 1 << 4;
+    private static final int TEXT_SHADOW = 1 << 5;
+    private static final int TRANSLATE = 1 << 6;
+    private static final int GAP = 1 << 7;
+    private static final int SCALE = 1 << 8;
+    private static final int BRIGHTNESS = 1 << 9;
+    private static final int SHADOW = 1 << 10;
+    private static final int RANGE = 1 << 11;
+
+    private final int present;
+    private final int background;
+    private final @Nullable AbstractDisplayMeta.BillboardConstraints billboard;
+    private final boolean seeThrough;
+    private final int lineWidth;
+    private final byte textOpacity;
+    private final boolean textShadow;
+    private final @Nullable Vector3f translation;
+    private final float gap;
+    private final @Nullable Vector3f scale;
+    private final int brightness;
+    private final float shadowStrength;
+    private final float shadowRadius;
+    private final float range;
+    private final long refreshEvery;
+    private final @NotNull TextTemplate text;
+
+    private TextDisplayStyle() {
+        this.present = 0;
+        this.background = NameTags.TRANSPARENT;
+        this.billboard = null;
+        this.seeThrough = false;
+        this.lineWidth = 0;
+        this.textOpacity = 0;
+        this.textShadow = false;
+        this.translation = null;
+        this.gap = DEFAULT_GAP;
+        this.scale = null;
+        this.brightness = 0;
+        this.shadowStrength = 0f;
+        this.shadowRadius = 0f;
+        this.range = 0f;
+        this.refreshEvery = -1L;
+        this.text = TextTemplate.EMPTY;
+    }
+
+    private TextDisplayStyle(@NotNull ConfigurationSection section, @NotNull TextFormatter formatter,
+            boolean removeEmptyLines) {
+        int present = 0;
+
+        String backgroundString = section.getString("background");
+        if (backgroundString != null) {
+            present |= BACKGROUND;
+            this.background = parseBackground(section, backgroundString);
+        } else {
+            this.background = NameTags.TRANSPARENT;
+        }
+
+        String billboardString = section.getString("billboard");
+        if (billboardString != null) {
+            present |= BILLBOARD;
+            this.billboard = ConfigHelper.getEnumByNameOrNull(
+                    AbstractDisplayMeta.BillboardConstraints.class,
+                    billboardString.toLowerCase(Locale.ROOT));
+
+            if (this.billboard == null) {
+                throw invalid(section, "billboard", billboardString);
+            }
+        } else {
+            this.billboard = null;
+        }
+
+        if (section.get("see-through") != null) {
+            present |= SEE_THROUGH;
+        }
+        this.seeThrough = section.getBoolean("see-through");
+
+        if (section.get("line-width") != null) {
+            present |= LINE_WIDTH;
+        }
+        this.lineWidth = section.getInt("line-width");
+
+        if (section.get("text-opacity") != null) {
+            present |= TEXT_OPACITY;
+        }
+        this.textOpacity = (byte) section.getInt("text-opacity");
+
+        if (section.get("text-shadow") != null) {
+            present |= TEXT_SHADOW;
+        }
+        this.textShadow = section.getBoolean("text-shadow");
+
+        Vector3f translation = null;
+        if (section.get("translate") != null) {
+            present |= TRANSLATE;
+            translation = parseVector(section, "translate");
+        }
+
+        String gapString = section.getString("gap");
+        if (gapString != null) {
+            present |= GAP;
+            this.gap = gapString.equalsIgnoreCase("default")
+                    ? DEFAULT_GAP
+                    : parseFloat(section, "gap", gapString);
+
+            // Gap always overrides the Y translation, so fold it in now to avoid setting it twice.
+            if (translation != null) {
+                translation = translation.withY(this.gap);
+                present &= ~GAP;
+            }
+        } else {
+            this.gap = DEFAULT_GAP;
+        }
+        this.translation = translation;
+
+        if (section.get("scale") != null) {
+            present |= SCALE;
+            this.scale = parseVector(section, "scale");
+        } else {
+            this.scale = null;
+        }
+
+        if (section.get("brightness") != null) {
+            present |= BRIGHTNESS;
+        }
+        this.brightness = section.getInt("brightness");
+
+        ConfigurationSection shadow = section.getConfigurationSection("shadow");
+        if (section.get("shadow") != null) {
+            if (shadow == null) {
+                throw invalid(section, "shadow", section.get("shadow"));
+            }
+            present |= SHADOW;
+            this.shadowStrength = (float) shadow.getDouble("strength");
+            this.shadowRadius = (float) shadow.getDouble("radius");
+        } else {
+            this.shadowStrength = 0f;
+            this.shadowRadius = 0f;
+        }
+
+        String rangeString = section.getString("range");
+        if (rangeString != null) {
+            present |= RANGE;
+            this.range = rangeString.equalsIgnoreCase("default")
+                    ? (Bukkit.getSimulationDistance() * 16f)
+                    : parseFloat(section, "range", rangeString);
+        } else {
+            this.range = 0f;
+        }
+
+        this.refreshEvery = section.getLong("refresh-every", -1L);
+        this.text = TextTemplate.compile(section.getStringList("text"), formatter, removeEmptyLines);
+        this.present = present;
+    }
+
+    /**
+     * Compiles the given section using the plugin's current formatter.
+     *
+     * @param section The section to read.
+     * @return The compiled style.
+     * @throws IllegalArgumentException If the section contains an invalid value.
+     */
+    public static @NotNull TextDisplayStyle compile(@NotNull ConfigurationSection section) {
+        final NameTags plugin = NameTags.getInstance();
+
+        return compile(
+                section,
+                plugin.getFormatter(),
+                plugin.getConfig().getBoolean("defaults.remove-empty-lines", false));
+    }
+
+    /**
+     * Compiles the given section.
+     *
+     * @param section          The section to read.
+     * @param formatter        The formatter used for the section's text.
+     * @param removeEmptyLines Whether empty lines should be left out of the text.
+     * @return The compiled style.
+     * @throws IllegalArgumentException If the section contains an invalid value.
+     */
+    public static @NotNull TextDisplayStyle compile(@NotNull ConfigurationSection section,
+            @NotNull TextFormatter formatter, boolean removeEmptyLines) {
+        return new TextDisplayStyle(section, formatter, removeEmptyLines);
+    }
+
+    public void apply(@NotNull TextDisplayMeta to) {
+        if (has(BACKGROUND) && to.getBackgroundColor() != background) {
+            to.setBackgroundColor(background);
+        }
+
+        if (has(BILLBOARD) && to.getBillboardConstraints() != billboard) {
+            to.setBillboardConstraints(billboard);
+        }
+
+        if (has(SEE_THROUGH) && to.isSeeThrough() != seeThrough) {
+            to.setSeeThrough(seeThrough);
+        }
+
+        if (has(LINE_WIDTH) && to.getLineWidth() != lineWidth) {
+            to.setLineWidth(lineWidth);
+        }
+
+        if (has(TEXT_OPACITY) && to.getTextOpacity() != textOpacity) {
+            to.setTextOpacity(textOpacity);
+        }
+
+        if (has(TEXT_SHADOW) && to.isShadow() != textShadow) {
+            to.setShadow(textShadow);
+        }
+
+        if (has(TRANSLATE) && !Objects.equals(to.getTranslation(), translation)) {
+            to.setTranslation(translation);
+        }
+
+        if (has(GAP) && to.getTranslation().y != gap) {
+            to.setTranslation(to.getTranslation().withY(gap));
+        }
+
+        if (has(SCALE) && !Objects.equals(to.getScale(), scale)) {
+            to.setScale(scale);
+        }
+
+        if (has(BRIGHTNESS) && to.getBrightnessOverride() != brightness) {
+            to.setBrightnessOverride(brightness);
+        }
+
+        if (has(SHADOW)) {
+            if (to.getShadowStrength() != shadowStrength) {
+                to.setShadowStrength(shadowStrength);
+            }
+            if (to.getShadowRadius() != shadowRadius) {
+                to.setShadowRadius(shadowRadius);
+            }
+        }
+
+        if (has(RANGE) && to.getViewRange() != range) {
+            to.setViewRange(range);
+        }
+    }
+
+    /**
+     * Puts every property a style can set back to what a new text display has,
+     * so keys removed from the config don't keep their old values.
+     */
+    public static void reset(@NotNull TextDisplayMeta to) {
+        final TextDisplayMeta fresh = new TextDisplayMeta(0, new Metadata(0));
+
+        if (to.getBackgroundColor() != fresh.getBackgroundColor()) {
+            to.setBackgroundColor(fresh.getBackgroundColor());
+        }
+
+        if (to.getBillboardConstraints() != fresh.getBillboardConstraints()) {
+            to.setBillboardConstraints(fresh.getBillboardConstraints());
+        }
+
+        if (to.isSeeThrough() != fresh.isSeeThrough()) {
+            to.setSeeThrough(fresh.isSeeThrough());
+        }
+
+        if (to.getLineWidth() != fresh.getLineWidth()) {
+            to.setLineWidth(fresh.getLineWidth());
+        }
+
+        if (to.getTextOpacity() != fresh.getTextOpacity()) {
+            to.setTextOpacity(fresh.getTextOpacity());
+        }
+
+        if (to.isShadow() != fresh.isShadow()) {
+            to.setShadow(fresh.isShadow());
+        }
+
+        if (!Objects.equals(to.getTranslation(), fresh.getTranslation())) {
+            to.setTranslation(fresh.getTranslation());
+        }
+
+        if (!Objects.equals(to.getScale(), fresh.getScale())) {
+            to.setScale(fresh.getScale());
+        }
+
+        if (to.getBrightnessOverride() != fresh.getBrightnessOverride()) {
+            to.setBrightnessOverride(fresh.getBrightnessOverride());
+        }
+
+        if (to.getShadowStrength() != fresh.getShadowStrength()) {
+            to.setShadowStrength(fresh.getShadowStrength());
+        }
+
+        if (to.getShadowRadius() != fresh.getShadowRadius()) {
+            to.setShadowRadius(fresh.getShadowRadius());
+        }
+
+        if (to.getViewRange() != fresh.getViewRange()) {
+            to.setViewRange(fresh.getViewRange());
+        }
+    }
+
+    /**
+     * @return The configured {@code refresh-every} in milliseconds, or -1 if it was not set.
+     */
+    public long getRefreshEvery() {
+        return refreshEvery;
+    }
+
+    public @NotNull TextTemplate getText() {
+        return text;
+    }
+
+    /**
+     * @return The background as an ARGB int, only meaningful if the section set one.
+     */
+    public int getBackground() {
+        return background;
+    }
+
+    private boolean has(int flag) {
+        return (present & flag) != 0;
+    }
+
+    private static int parseBackground(@NotNull ConfigurationSection section, @NotNull String backgroundColor) {
+        if (backgroundColor.equalsIgnoreCase("transparent")) {
+            return NameTags.TRANSPARENT;
+        }
+
+        NamedTextColor named = NamedTextColor.NAMES.value(backgroundColor);
+        if (named != null) {
+            return 0x40000000 | named.value();
+        }
+
+        if (!backgroundColor.startsWith("#")) {
+            return NameTags.TRANSPARENT;
+        }
+
+        String hex = backgroundColor.substring(1);
+        try {
+            if (hex.length() == 6) {
+                // Set a default alpha of 0x40 (minecraft's internal default)
+                return 0x40000000 | Integer.parseInt(hex, 16);
+            } else if (hex.length() == 8) {
+                return (int) Long.parseLong(hex, 16);
+            }
+        } catch (NumberFormatException ignored) {
+        }
+
+        throw invalid(section, "background", backgroundColor);
+    }
+
+    private static @NotNull Vector3f parseVector(@NotNull ConfigurationSection section, @NotNull String key) {
+        ConfigurationSection vector = section.getConfigurationSection(key);
+
+        if (vector == null) {
+            throw invalid(section, key, section.get(key));
+        }
+
+        return new Vector3f(
+                (float) vector.getDouble("x"),
+                (float) vector.getDouble("y"),
+                (float) vector.getDouble("z"));
+    }
+
+    private static float parseFloat(@NotNull ConfigurationSection section, @NotNull String key, @NotNull String value) {
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException error) {
+            throw invalid(section, key, value);
+        }
+    }
+
+    private static @NotNull IllegalArgumentException invalid(@NotNull ConfigurationSection section, @NotNull String key,
+            @Nullable Object value) {
+        return new IllegalArgumentException(
+                String.format("Invalid value '%s' for '%s' in section '%s'", value, key, section.getCurrentPath()));
+    }
+}
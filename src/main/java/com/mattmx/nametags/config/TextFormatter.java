@@ -1,6 +1,7 @@
 package com.mattmx.nametags.config;
 
 import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.minimessage.MiniMessage;
 import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
@@ -23,38 +24,7 @@ public enum TextFormatter {
     ),
     SMART(
         "smart",
-        (line) -> {
-            // First replace any legacy chars with &
-            String mutableLine = convertLegacyHex(line.replace(NameTags.LEGACY_CHAR, '&'));
-
-            // Convert legacy to modern formatting
-            mutableLine = convertLegacyHexToMiniMessage(mutableLine);
-            mutableLine = mutableLine
-                .replace("&0", "<black>")
-                .replace("&1", "<dark_blue>")
-                .replace("&2", "<dark_green>")
-                .replace("&3", "<dark_aqua>")
-                .replace("&4", "<dark_red>")
-                .replace("&5", "<dark_purple>")
-                .replace("&6", "<gold>")
-                .replace("&7", "<gray>")
-                .replace("&8", "<dark_gray>")
-                .replace("&9", "<blue>")
-                .replace("&a", "<green>")
-                .replace("&b", "<aqua>")
-                .replace("&c", "<red>")
-                .replace("&d", "<light_purple>")
-                .replace("&e", "<yellow>")
-                .replace("&f", "<white>")
-                .replace("&k", "<obf>")
-                .replace("&l", "<b>")
-                .replace("&m", "<st>")
-                .replace("&n", "<u>")
-                .replace("&o", "<i>")
-                .replace("&r", "<reset>");
-
-            return MINI_MESSAGE.format(mutableLine);
-        }
+        (line) -> MiniMessage.miniMessage().deserialize(LegacyTranscoder.toMiniMessage(line))
     );
 
     // Converts legacy hex format &x&9&0&0&c&3&f -> &#900c3f modern hex format
@@ -79,36 +49,7 @@ public enum TextFormatter {
         return result.toString();
     }
 
-    /**
-     * Converts Minecraft legacy hex color codes (&#RRGGBB) to MiniMessage format (<#RRGGBB>).
-     *
-     * @param legacyText The input string with legacy color codes.
-     * @return The converted string in MiniMessage format.
-     */
-    public static String convertLegacyHexToMiniMessage(@NotNull String legacyText) {
-        if (legacyText.isEmpty()) {
-            return legacyText;
-        }
-
-        // Regex to match legacy hex color codes (&# followed by 6 hexadecimal characters)
-        Pattern legacyHexPattern = Pattern.compile("&#([0-9a-fA-F]{6})");
-        Matcher matcher = legacyHexPattern.matcher(legacyText);
-
-        StringBuilder convertedText = new StringBuilder();
-
-        while (matcher.find()) {
-            // Extract the hex color code (RRGGBB)
-            String hexColor = matcher.group(1);
-
-            // Replace with MiniMessage format
-            matcher.appendReplacement(convertedText, "<#" + hexColor + ">");
-        }
-
-        // Append the rest of the text
-        matcher.appendTail(convertedText);
-
-        return convertedText.toString();
-    }
+    private static final ComponentCache cache = new ComponentCache();
 
     private static final LegacyComponentSerializer legacy = LegacyComponentSerializer.builder()
         .character('&')
@@ -128,8 +69,24 @@ public enum TextFormatter {
         this.formatter = formatter;
     }
 
+    /**
+     * Formats the line, reusing the component from the {@link ComponentCache} if it's enabled.
+     */
     public @NotNull Component format(@NotNull String line) {
-        return formatter.apply(line);
+        return cache.get(this, line);
+    }
+
+    @NotNull Component parse(@NotNull String line) {
+        final long start = NameTagsMetrics.FORMATTER.start();
+        try {
+            return formatter.apply(line);
+        } finally {
+            NameTagsMetrics.FORMATTER.stop(start);
+        }
+    }
+
+    public static @NotNull ComponentCache getCache() {
+        return cache;
     }
 
     public static @NotNull Optional<TextFormatter> getById(@NotNull String identifier) {
@@ -0,0 +1,266 @@
+package com.mattmx.nametags.config;
+
+import com.mattmx.nametags.hook.PapiHook;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code text} lines of a config section, split once into literal and
+ * placeholder segments.
+ * <p>
+ * Lines without any placeholders are formatted once and reused. Lines with
+ * placeholders are only passed to the {@link TextFormatter} again when the
+ * resolved string differs from the previous render, which is tracked per tag
+ * by a {@link State}. Each placeholder's value may be reused for a while
+ * depending on the {@code placeholders} section of the config.
+ * <p>
+ * Relational ({@code %rel_...%}) placeholders are left as literal text since
+ * they are resolved per viewer when the packet is sent.
+ */
+public final class TextTemplate {
+    public static final @NotNull TextTemplate EMPTY = new TextTemplate(List.of(), TextFormatter.MINI_MESSAGE, false);
+
+    private static final @NotNull String RELATIONAL_PREFIX = "%rel_";
+
+    private final @NotNull List<String> raw;
+    private final @NotNull Line[] lines;
+    private final @NotNull TextFormatter formatter;
+    private final boolean removeEmptyLines;
+
+    private TextTemplate(@NotNull List<String> raw, @NotNull TextFormatter formatter, boolean removeEmptyLines) {
+        this.raw = List.copyOf(raw);
+        this.formatter = formatter;
+        this.removeEmptyLines = removeEmptyLines;
+        this.lines = new Line[this.raw.size()];
+
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = Line.compile(this.raw.get(i));
+        }
+    }
+
+    public static @NotNull TextTemplate compile(@NotNull List<String> lines, @NotNull TextFormatter formatter,
+            boolean removeEmptyLines) {
+        if (lines.isEmpty()) {
+            return EMPTY;
+        }
+
+        return new TextTemplate(lines, formatter, removeEmptyLines);
+    }
+
+    public @NotNull State newState() {
+        return new State(this);
+    }
+
+    /**
+     * Renders every line without reusing anything from a previous render.
+     */
+    public @Nullable Component render(@NotNull Player self) {
+        return render(self, newState());
+    }
+
+    /**
+     * Renders the template for the given player.
+     *
+     * @param self  The player to resolve placeholders for.
+     * @param state The result of the previous render for this tag.
+     * @return The joined text, which is the same instance as last time if no line changed,
+     * or null if there is nothing to display.
+     */
+    public @Nullable Component render(@NotNull Player self, @NotNull State state) {
+        if (state.template != this) {
+            throw new IllegalArgumentException("State belongs to a different template");
+        }
+
+        boolean changed = !state.rendered;
+
+        for (int i = 0; i < lines.length; i++) {
+            final Line line = lines[i];
+
+            if (!line.isDynamic()) {
+                if (state.components[i] == null) {
+                    state.components[i] = line.staticComponent(formatter);
+                    changed = true;
+                }
+                continue;
+            }
+
+            final String resolved = line.resolve(self);
+
+            if (!resolved.equals(state.resolved[i])) {
+                state.resolved[i] = resolved;
+                state.components[i] = formatter.format(resolved);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            state.joined = join(state.components);
+            state.rendered = true;
+        }
+
+        return state.joined;
+    }
+
+    private @Nullable Component join(@NotNull Component[] components) {
+        Component joined = null;
+
+        for (final Component component : components) {
+            if (removeEmptyLines && !TextComponent.IS_NOT_EMPTY.test(component)) {
+                continue;
+            }
+
+            joined = joined == null
+                    ? component
+                    : joined.append(Component.newline()).append(component);
+        }
+
+        return joined;
+    }
+
+    public boolean isEmpty() {
+        return lines.length == 0;
+    }
+
+    public boolean isDynamic() {
+        for (final Line line : lines) {
+            if (line.isDynamic()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public @NotNull List<String> getLines() {
+        return raw;
+    }
+
+    public @NotNull TextFormatter getFormatter() {
+        return formatter;
+    }
+
+    /**
+     * Per-tag result of the last render of a template.
+     */
+    public static final class State {
+        private final @NotNull TextTemplate template;
+        private final @Nullable String @NotNull [] resolved;
+        private final @Nullable Component @NotNull [] components;
+        private @Nullable Component joined = null;
+        private boolean rendered = false;
+
+        private State(@NotNull TextTemplate template) {
+            this.template = template;
+            this.resolved = new String[template.lines.length];
+            this.components = new Component[template.lines.length];
+        }
+
+        public boolean isFor(@NotNull TextTemplate template) {
+            return this.template == template;
+        }
+    }
+
+    private static final class Line {
+        private final @NotNull String raw;
+        // literals.length == placeholders.length + 1, placeholders sit between literals
+        private final @NotNull String @NotNull [] literals;
+        private final @NotNull String @NotNull [] placeholders;
+        private volatile @Nullable Component staticComponent = null;
+
+        private Line(@NotNull String raw, @NotNull String[] literals, @NotNull String[] placeholders) {
+            this.raw = raw;
+            this.literals = literals;
+            this.placeholders = placeholders;
+        }
+
+        /**
+         * Splits the line the same way PlaceholderAPI scans it, so a stray {@code %} is never
+         * paired with the wrong one. A {@code %} followed by a space before any {@code _}, or
+         * without a closing {@code %}, is plain text.
+         */
+        private static @NotNull Line compile(@NotNull String raw) {
+            final List<String> literals = new ArrayList<>();
+            final List<String> placeholders = new ArrayList<>();
+            final StringBuilder literal = new StringBuilder();
+            final int length = raw.length();
+
+            int i = 0;
+            while (i < length) {
+                final char c = raw.charAt(i);
+
+                if (c != '%' || i + 1 >= length) {
+                    literal.append(c);
+                    i++;
+                    continue;
+                }
+
+                int end = i + 1;
+                boolean identified = false;
+                while (end < length) {
+                    final char p = raw.charAt(end);
+
+                    if (p == '%' || (p == ' ' && !identified))
+                        break;
+
+                    identified |= p == '_';
+                    end++;
+                }
+
+                if (end >= length || raw.charAt(end) != '%') {
+                    // Not a placeholder, PlaceholderAPI carries on scanning after the space
+                    final int next = Math.min(end + 1, length);
+                    literal.append(raw, i, next);
+                    i = next;
+                    continue;
+                }
+
+                final String placeholder = raw.substring(i, end + 1);
+                i = end + 1;
+
+                if (placeholder.startsWith(RELATIONAL_PREFIX)) {
+                    literal.append(placeholder);
+                    continue;
+                }
+
+                literals.add(literal.toString());
+                literal.setLength(0);
+                placeholders.add(placeholder);
+            }
+            literals.add(literal.toString());
+
+            return new Line(raw, literals.toArray(String[]::new), placeholders.toArray(String[]::new));
+        }
+
+        private boolean isDynamic() {
+            return placeholders.length > 0;
+        }
+
+        private @NotNull Component staticComponent(@NotNull TextFormatter formatter) {
+            Component component = this.staticComponent;
+
+            if (component == null) {
+                component = formatter.format(raw);
+                this.staticComponent = component;
+            }
+
+            return component;
+        }
+
+        private @NotNull String resolve(@NotNull Player self) {
+            final StringBuilder builder = new StringBuilder(raw.length() + 16);
+
+            builder.append(literals[0]);
+            for (int i = 0; i < placeholders.length; i++) {
+                builder.append(PapiHook.resolvePlaceholder(self, placeholders[i]))
+                        .append(literals[i + 1]);
+            }
+
+            return builder.toString();
+        }
+    }
+}
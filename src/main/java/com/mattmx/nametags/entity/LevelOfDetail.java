@@ -0,0 +1,343 @@
+package com.mattmx.nametags.entity;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
+import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.config.LodTier;
+import com.mattmx.nametags.metrics.Counter;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
+import com.mattmx.nametags.packet.EntityMetadataRewriter;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends a tag's metadata changes to each viewer according to the
+ * {@link LodTier} they are in.
+ * <p>
+ * Changes a viewer isn't due for yet are merged by index and sent together
+ * once they are, so a far away viewer still ends up with the latest state.
+ * The manager sends them when the earliest interval runs out, even if the
+ * tag isn't modified again, see {@link #isDue(long)}.
+ * <p>
+ * Each viewer's tier is worked out on the main thread as players move, see
+ * {@link #updateTiers(NameTagEntity, Location, List)}. Sending only reads the
+ * tier that was last worked out, so it can run on any thread.
+ */
+public class LevelOfDetail {
+    private static final Counter DEFERRED = NameTagsMetrics.counter("lod.deferred");
+
+    private final @NotNull ConcurrentHashMap<UUID, ViewerDetail> viewers = new ConcurrentHashMap<>();
+    private volatile @Nullable Component @NotNull [] tierTexts = new Component[0];
+    // Set when something other than a metadata change needs to be sent, e.g. a tier's text changed
+    private volatile boolean dirty = false;
+    private volatile int deferredViewers = 0;
+    // Whether a viewer is waiting on a tier text that changed, which isn't part of their deferred entries
+    private volatile boolean textDeferred = false;
+    // When the first viewer with something deferred is due, only meaningful while something is deferred
+    private volatile long nextDueNanos = 0L;
+
+    /**
+     * Updates the text shown to viewers in tiers that have their own text.
+     */
+    public void setTierTexts(@Nullable Component @NotNull [] texts) {
+        if (!Arrays.equals(this.tierTexts, texts)) {
+            this.tierTexts = texts;
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Called when a viewer is added, so they are moved to the right tier on the next update.
+     */
+    public void markDirty() {
+        this.dirty = true;
+    }
+
+    public synchronized void remove(@NotNull UUID viewer) {
+        final ViewerDetail removed = viewers.remove(viewer);
+
+        if (removed != null && removed.hasDeferred()) {
+            deferredViewers--;
+        }
+    }
+
+    /**
+     * @return Whether anything could be sent even without new changes.
+     */
+    public boolean hasPending() {
+        return dirty || textDeferred || deferredViewers > 0;
+    }
+
+    /**
+     * @return Whether sending without new changes would reach any viewer.
+     */
+    public boolean isDue(long nowNanos) {
+        if (dirty)
+            return true;
+
+        return (textDeferred || deferredViewers > 0) && nowNanos - nextDueNanos >= 0;
+    }
+
+    /**
+     * Places every viewer of the tag in their tier. Reads player locations, so
+     * it must be called on the main thread.
+     *
+     * @param origin Where the tag is.
+     * @return Whether any viewer changed tier or was placed for the first time.
+     */
+    public synchronized boolean updateTiers(@NotNull NameTagEntity tag, @NotNull Location origin,
+            @NotNull List<LodTier> tiers) {
+        final Location scratch = new Location(null, 0, 0, 0);
+        boolean changed = false;
+
+        for (final UUID viewerId : tag.getPassenger().getViewers()) {
+            final Player viewer = Bukkit.getPlayer(viewerId);
+
+            if (viewer == null)
+                continue;
+
+            changed |= place(viewer, LodTier.select(tiers, viewer.getLocation(scratch), origin));
+        }
+
+        return changed;
+    }
+
+    /**
+     * Places a single viewer in their tier, called on the main thread when they move.
+     *
+     * @return Whether the viewer changed tier or was placed for the first time.
+     */
+    public synchronized boolean updateTier(@NotNull Player viewer, @NotNull Location location,
+            @NotNull Location origin, @NotNull List<LodTier> tiers) {
+        return place(viewer, LodTier.select(tiers, location, origin));
+    }
+
+    private boolean place(@NotNull Player viewer, int tier) {
+        final ViewerDetail detail = viewers.computeIfAbsent(viewer.getUniqueId(), (uuid) -> new ViewerDetail());
+        boolean changed = false;
+
+        if (detail.user == null) {
+            detail.user = PacketEvents.getAPI().getPlayerManager().getUser(viewer);
+            changed = detail.user != null;
+        }
+
+        if (detail.tier != tier) {
+            detail.tier = tier;
+            changed = true;
+        }
+
+        if (changed) {
+            this.dirty = true;
+        }
+
+        return changed;
+    }
+
+    /**
+     * Sends the changes to every viewer that is due for an update. Viewers that
+     * weren't placed in a tier yet keep the changes until they are.
+     *
+     * @return How many packets were sent.
+     */
+    public synchronized int send(@NotNull NameTagEntity tag, @NotNull List<EntityData<?>> changes,
+            @NotNull List<LodTier> tiers) {
+        this.dirty = false;
+
+        final long now = System.nanoTime();
+        final Component[] texts = this.tierTexts;
+        WrapperPlayServerEntityMetadata shared = null;
+        boolean textDeferred = false;
+        boolean anyDeferred = false;
+        long nextDue = 0L;
+        int sent = 0;
+
+        for (final UUID viewerId : tag.getPassenger().getViewers()) {
+            final ViewerDetail detail = viewers.computeIfAbsent(viewerId, (uuid) -> new ViewerDetail());
+            final User user = detail.user;
+            final boolean hadDeferred = detail.hasDeferred();
+
+            // The manager places the viewer on the main thread and sends again on the next tick
+            if (user == null) {
+                if (!hadDeferred && !changes.isEmpty()) {
+                    deferredViewers++;
+                }
+                detail.defer(changes);
+
+                if (!anyDeferred || now - nextDue < 0) {
+                    nextDue = now;
+                }
+                anyDeferred = true;
+                continue;
+            }
+
+            // Tiers can shrink on reload before the viewer is placed again
+            final int tierIndex = Math.min(detail.tier, tiers.size() - 1);
+            final LodTier tier = tiers.get(tierIndex);
+            final Component text = tier.hasText() && tierIndex < texts.length ? texts[tierIndex] : null;
+
+            // Moving closer catches up straight away instead of waiting for the old tier's interval
+            final boolean closer = tierIndex < detail.sentTier;
+            final boolean textChanged = !Objects.equals(text, detail.sentText);
+
+            if (changes.isEmpty() && !hadDeferred && !textChanged)
+                continue;
+
+            if (!closer && now - detail.lastSentNanos < tier.intervalNanos()) {
+                if (!hadDeferred && !changes.isEmpty()) {
+                    deferredViewers++;
+                }
+                detail.defer(changes);
+                textDeferred |= textChanged;
+                DEFERRED.increment();
+
+                final long due = detail.lastSentNanos + tier.intervalNanos();
+                if (!anyDeferred || due - nextDue < 0) {
+                    nextDue = due;
+                }
+                anyDeferred = true;
+                continue;
+            }
+
+            detail.lastSentNanos = now;
+            detail.sentTier = tierIndex;
+
+            final WrapperPlayServerEntityMetadata packet;
+
+            if (!hadDeferred && !textChanged && text == null) {
+                // The common case, nearby viewers all receive the same packet
+                if (shared == null) {
+                    shared = new WrapperPlayServerEntityMetadata(tag.getPassenger().getEntityId(), changes);
+                }
+                packet = shared;
+            } else {
+                if (hadDeferred) {
+                    deferredViewers--;
+                }
+                detail.defer(changes);
+
+                final List<EntityData<?>> entries = detail.takeDeferred();
+
+                if (text != null || textChanged) {
+                    entries.removeIf((entry) -> entry.getIndex() == EntityMetadataRewriter.TEXT_DISPLAY_TEXT_INDEX);
+                }
+
+                if (textChanged) {
+                    // Either the tier's text changed, or the viewer left a tier with its own text
+                    final Component shown = text != null ? text : tag.getTextSnapshot().text();
+                    entries.add(new EntityData<>(EntityMetadataRewriter.TEXT_DISPLAY_TEXT_INDEX,
+                            EntityDataTypes.ADV_COMPONENT, shown));
+                    detail.sentText = text;
+                }
+
+                if (entries.isEmpty())
+                    continue;
+
+                packet = new WrapperPlayServerEntityMetadata(tag.getPassenger().getEntityId(), entries);
+            }
+
+            NameTags.getInstance()
+                    .getOutboundQueue()
+                    .send(user, tag.getPassenger().getEntityId(), packet);
+            sent++;
+        }
+
+        this.textDeferred = textDeferred;
+        this.nextDueNanos = nextDue;
+
+        if (anyDeferred) {
+            NameTags.getInstance().getEntityManager().markDeferred(tag);
+        }
+
+        return sent;
+    }
+
+    /**
+     * @return Whether the viewer is shown a tier's text instead of the full text.
+     */
+    public boolean isShowingTierText(@NotNull UUID viewer) {
+        final ViewerDetail detail = viewers.get(viewer);
+        return detail != null && detail.sentText != null;
+    }
+
+    public int getDeferredViewers() {
+        return deferredViewers;
+    }
+
+    /**
+     * @return How many viewers are in each tier.
+     */
+    public int @NotNull [] getTierCounts(int tiers) {
+        final int[] counts = new int[tiers];
+
+        for (final ViewerDetail detail : viewers.values()) {
+            if (detail.tier >= 0 && detail.tier < tiers) {
+                counts[detail.tier]++;
+            }
+        }
+
+        return counts;
+    }
+
+    private static final class ViewerDetail {
+        // Both set on the main thread, see place(...)
+        private @Nullable User user = null;
+        private int tier = -1;
+        private int sentTier = Integer.MAX_VALUE;
+        private long lastSentNanos = 0L;
+        private @Nullable Component sentText = null;
+        // Latest entry for each index that wasn't sent yet
+        private @Nullable EntityData<?>[] deferred = null;
+        private int deferredCount = 0;
+
+        private boolean hasDeferred() {
+            return deferredCount > 0;
+        }
+
+        private void defer(@NotNull List<EntityData<?>> changes) {
+            for (final EntityData<?> entry : changes) {
+                final int index = entry.getIndex();
+
+                if (deferred == null) {
+                    deferred = new EntityData<?>[Math.max(32, index + 1)];
+                } else if (index >= deferred.length) {
+                    deferred = Arrays.copyOf(deferred, index + 1);
+                }
+
+                if (deferred[index] == null) {
+                    deferredCount++;
+                }
+                deferred[index] = entry;
+            }
+        }
+
+        private @NotNull List<EntityData<?>> takeDeferred() {
+            final List<EntityData<?>> entries = new ArrayList<>(deferredCount + 1);
+
+            if (deferred != null) {
+                for (int i = 0; i < deferred.length; i++) {
+                    if (deferred[i] != null) {
+                        entries.add(deferred[i]);
+                        deferred[i] = null;
+                    }
+                }
+            }
+
+            deferredCount = 0;
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.mattmx.nametags.entity;
+
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Remembers the last metadata value sent to viewers for every index of a
+ * tag, so only the indices that actually changed are sent again.
+ */
+public class MetadataTracker {
+    private Object[] lastSent = new Object[32];
+
+    /**
+     * Compares the current entries against the last sent values and marks the
+     * changed ones as sent.
+     *
+     * @param current Every entry currently in the tag's metadata.
+     * @return The entries that changed since the last call, empty if nothing is dirty.
+     */
+    public @NotNull List<EntityData<?>> collectChanges(@NotNull List<EntityData<?>> current) {
+        return collectChanges(current, -1);
+    }
+
+    /**
+     * Same as {@link #collectChanges(List)}, but the entry at the given index is
+     * included even if it didn't change.
+     *
+     * @param alwaysIndex The index to always include, or -1 for none.
+     */
+    public synchronized @NotNull List<EntityData<?>> collectChanges(@NotNull List<EntityData<?>> current, int alwaysIndex) {
+        List<EntityData<?>> changes = null;
+
+        for (final EntityData<?> entry : current) {
+            if (entry == null) {
+                continue;
+            }
+
+            final int index = entry.getIndex();
+            if (index >= lastSent.length) {
+                lastSent = Arrays.copyOf(lastSent, Math.max(index + 1, lastSent.length * 2));
+            }
+
+            final Object previous = lastSent[index];
+            final Object value = entry.getValue();
+
+            // Values are immutable, so the same instance means nothing changed
+            if (index != alwaysIndex && (previous == value || (previous != null && Objects.equals(previous, value)))) {
+                continue;
+            }
+
+            lastSent[index] = value;
+
+            if (changes == null) {
+                changes = new ArrayList<>(4);
+            }
+            changes.add(entry);
+        }
+
+        return changes == null ? List.of() : changes;
+    }
+
+    /**
+     * Forgets everything that was sent, so the next call sends every entry.
+     */
+    public synchronized void reset() {
+        Arrays.fill(lastSent, null);
+    }
+}
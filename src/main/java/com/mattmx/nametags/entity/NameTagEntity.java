@@ -1,34 +1,72 @@
 package com.mattmx.nametags.entity;
 
 import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.netty.channel.ChannelHelper;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
 import com.github.retrooper.packetevents.protocol.entity.type.EntityTypes;
+import com.github.retrooper.packetevents.protocol.player.User;
 import com.github.retrooper.packetevents.protocol.world.Location;
 import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSetPassengers;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSpawnEntity;
 import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.config.LodTier;
+import com.mattmx.nametags.config.TextDisplayStyle;
+import com.mattmx.nametags.entity.trait.RefreshTrait;
 import com.mattmx.nametags.entity.trait.TraitHolder;
+import com.mattmx.nametags.hook.RelationalTemplate;
+import com.mattmx.nametags.packet.EntityMetadataRewriter;
+import com.mattmx.nametags.packet.OutboundPacketQueue;
+import com.mattmx.nametags.utils.ComponentUtils;
 import io.github.retrooper.packetevents.util.SpigotConversionUtil;
 import me.tofaa.entitylib.meta.display.TextDisplayMeta;
 import me.tofaa.entitylib.wrapper.WrapperEntity;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.potion.PotionEffectType;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 public class NameTagEntity {
+    private static final TextComponent RELATIONAL_PLACEHOLDER_PREFIX = Component.text("%rel_");
+    // How deep the current thread is in modify(...) of each tag, changes are sent when its outermost call finishes.
+    // Shared by every tag so a thread only ever holds one map, and tags are removed once their depth is back to 0.
+    private static final @NotNull ThreadLocal<Map<NameTagEntity, Integer>> MODIFY_DEPTH = ThreadLocal.withInitial(IdentityHashMap::new);
+
     private final @NotNull TraitHolder traits = new TraitHolder(this);
     private final @NotNull Entity bukkitEntity;
     private final @NotNull WrapperEntity passenger;
+    private final @NotNull MetadataTracker metadataTracker = new MetadataTracker();
+    private final @NotNull LevelOfDetail levelOfDetail = new LevelOfDetail();
+    // Guards the passenger's viewers together with the manager's viewer index
+    private final @NotNull Object viewerLock = new Object();
+    private volatile @NotNull TextSnapshot textSnapshot = new TextSnapshot(0L, null, null);
+    private final @NotNull AtomicLong passengersVersion = new AtomicLong();
+    private volatile @Nullable PassengerIds passengerIds = null;
     private float cachedViewRange = -1f;
 
     public NameTagEntity(@NotNull Entity entity) {
         this.bukkitEntity = entity;
         this.passenger = new WrapperEntity(EntityTypes.TEXT_DISPLAY);
 
+        // Changes are sent by sendMetadataChanges() instead, see modify(...) and getMeta()
+        this.passenger.getEntityMeta().setNotifyAboutChanges(false);
+
         initialize();
     }
 
@@ -40,7 +78,7 @@ public class NameTagEntity {
         if (NameTags.getInstance().getConfig().getBoolean("show-self", false)) {
 
             if (this.bukkitEntity instanceof Player self) {
-                this.passenger.addViewer(self.getUniqueId());
+                addViewer(self.getUniqueId());
                 sendPassengerPacket(self);
             }
 
@@ -74,18 +112,332 @@ public class NameTagEntity {
         });
     }
 
+    /**
+     * Puts the tag's style back to how a new tag starts, see {@link TextDisplayStyle#reset(TextDisplayMeta)}.
+     * A hidden tag is un-hidden first, so call {@link #updateVisibility()} afterwards
+     * to hide it again with the range that gets applied next.
+     */
+    public void resetMeta() {
+        modify((meta) -> {
+            if (meta.isInvisible()) {
+                meta.setViewRange(this.cachedViewRange);
+                meta.setInvisible(false);
+            }
+
+            TextDisplayStyle.reset(meta);
+        });
+    }
+
     public @NotNull TraitHolder getTraits() {
         return traits;
     }
 
+    /**
+     * Must be called on the main thread.
+     *
+     * @return The players tracking the entity, and the entity itself if it's a
+     * player, which are the players that should be able to see the tag.
+     */
+    public @NotNull List<Player> getTrackingPlayers() {
+        final List<Player> players = new ArrayList<>(this.bukkitEntity.getTrackedBy());
+
+        // Callers decide whether the owner sees their own tag
+        if (this.bukkitEntity instanceof Player self) {
+            players.add(self);
+        }
+
+        return players;
+    }
+
+    /**
+     * Adds a viewer to the passenger, use this instead of the passenger's own
+     * method so the manager can keep track of which tags each player sees.
+     */
+    public void addViewer(@NotNull UUID viewer) {
+        catchUpForFirstViewer();
+        synchronized (this.viewerLock) {
+            this.passenger.addViewer(viewer);
+            NameTags.getInstance().getEntityManager().trackViewer(viewer, this);
+        }
+        markLevelOfDetailDirty();
+
+        final Player player = Bukkit.getPlayer(viewer);
+        final User user = player == null ? null : PacketEvents.getAPI().getPlayerManager().getUser(player);
+        if (player == null || user != null) {
+            removeIfDisconnected(viewer, user);
+        }
+    }
+
+    public void addViewer(@NotNull User viewer) {
+        catchUpForFirstViewer();
+        synchronized (this.viewerLock) {
+            this.passenger.addViewer(viewer);
+            NameTags.getInstance().getEntityManager().trackViewer(viewer.getUUID(), this);
+        }
+        markLevelOfDetailDirty();
+        removeIfDisconnected(viewer.getUUID(), viewer);
+    }
+
+    /**
+     * Adds a viewer and queues the spawn, metadata and passengers packets, which
+     * are built and sent together at the end of the tick.
+     */
+    public void show(@NotNull User viewer) {
+        final boolean alreadyViewing = this.passenger.getViewers().contains(viewer.getUUID());
+
+        catchUpForFirstViewer();
+
+        synchronized (this.viewerLock) {
+            this.passenger.addViewerSilently(viewer.getUUID());
+            NameTags.getInstance().getEntityManager().trackViewer(viewer.getUUID(), this);
+        }
+        markLevelOfDetailDirty();
+
+        if (removeIfDisconnected(viewer.getUUID(), viewer) || !this.passenger.isSpawned())
+            return;
+
+        final OutboundPacketQueue queue = NameTags.getInstance().getOutboundQueue();
+        final int entityId = this.passenger.getEntityId();
+
+        if (!alreadyViewing) {
+            queue.queue(viewer, entityId, this::createSpawnPacket);
+            queue.queue(viewer, entityId, () -> meta().createPacket());
+        }
+        queue.queue(viewer, entityId, this::getPassengersPacket);
+    }
+
+    public void show(@NotNull Player viewer) {
+        final User user = PacketEvents.getAPI().getPlayerManager().getUser(viewer);
+
+        if (user == null)
+            return;
+
+        show(user);
+    }
+
+    /**
+     * Quitting removes the player from every tag they were tracked for, so a
+     * viewer added on another thread while they quit has to be removed again.
+     *
+     * @param user The viewer's user, or null if they are offline.
+     * @return If the viewer was removed.
+     */
+    private boolean removeIfDisconnected(@NotNull UUID viewer, @Nullable User user) {
+        if (user != null && ChannelHelper.isOpen(user.getChannel()))
+            return false;
+
+        removeViewer(viewer);
+        return true;
+    }
+
+    private void catchUpForFirstViewer() {
+        if (!this.passenger.getViewers().isEmpty())
+            return;
+
+        // Refreshing is suspended while nobody can see the tag
+        final RefreshTrait refresh = this.traits.getTraitOrNull(RefreshTrait.class);
+        if (refresh != null) {
+            refresh.catchUp();
+        }
+    }
+
+    private void markLevelOfDetailDirty() {
+        this.levelOfDetail.markDirty();
+
+        // Moves the new viewer into their tier on the next tick rather than the next refresh
+        if (!NameTags.getInstance().getLodTiers().isEmpty()) {
+            NameTags.getInstance().getEntityManager().markDeferred(this);
+        }
+    }
+
+    public void removeViewer(@NotNull UUID viewer) {
+        NameTags.getInstance().getOutboundQueue().purge(viewer, this.passenger.getEntityId());
+        synchronized (this.viewerLock) {
+            this.passenger.removeViewer(viewer);
+            NameTags.getInstance().getEntityManager().untrackViewer(viewer, this);
+        }
+        this.levelOfDetail.remove(viewer);
+    }
+
+    public void removeViewer(@NotNull User viewer) {
+        NameTags.getInstance().getOutboundQueue().purge(viewer.getUUID(), this.passenger.getEntityId());
+        synchronized (this.viewerLock) {
+            this.passenger.removeViewer(viewer);
+            NameTags.getInstance().getEntityManager().untrackViewer(viewer.getUUID(), this);
+        }
+        this.levelOfDetail.remove(viewer.getUUID());
+    }
+
+    /**
+     * Modifies the tag's metadata and sends the indices that changed to all viewers.
+     * <p>
+     * Calls can be nested, in which case changes are only sent once the outermost
+     * call on the same thread finishes.
+     */
     public void modify(Consumer<TextDisplayMeta> consumer) {
-        this.passenger.consumeEntityMeta(TextDisplayMeta.class, consumer);
+        modifyAndSend(consumer);
+    }
+
+    /**
+     * Same as {@link #modify(Consumer)}.
+     *
+     * @return How many packets were sent, which is 0 for nested calls.
+     */
+    public int modifyAndSend(Consumer<TextDisplayMeta> consumer) {
+        final Map<NameTagEntity, Integer> depths = MODIFY_DEPTH.get();
+        int sent = 0;
+
+        depths.merge(this, 1, Integer::sum);
+        try {
+            consumer.accept(meta());
+        } finally {
+            final Integer depth = depths.merge(this, -1, (previous, change) -> previous + change == 0 ? null : previous + change);
+
+            if (depth == null) {
+                sent = sendMetadataChanges();
+            }
+        }
+
+        return sent;
+    }
+
+    /**
+     * Sends only the metadata indices that changed since the last call to every
+     * viewer. Nothing is sent if no index changed.
+     *
+     * @return How many packets were sent.
+     */
+    public int sendMetadataChanges() {
+        // Threads modifying the tag at the same time take turns, so each change is only sent once
+        synchronized (this.metadataTracker) {
+            return sendMetadataChangesLocked();
+        }
+    }
+
+    private int sendMetadataChangesLocked() {
+        final NameTagEntityManager manager = NameTags.getInstance().getEntityManager();
+        final int viewers = this.passenger.getViewers().size();
+
+        if (!this.passenger.isSpawned() || viewers == 0) {
+            return 0;
+        }
+
+        // Relational text is resolved per viewer when the packet is sent, so it has to be
+        // sent on every refresh for the viewers' values to update
+        final List<EntityData<?>> changes = metadataTracker.collectChanges(
+                meta().createPacket().getEntityMetadata(),
+                hasRelationalPlaceholders() ? EntityMetadataRewriter.TEXT_DISPLAY_TEXT_INDEX : -1);
+        final List<LodTier> tiers = NameTags.getInstance().getLodTiers();
+
+        if (!tiers.isEmpty()) {
+            if (changes.isEmpty() && !levelOfDetail.hasPending()) {
+                manager.recordMetadataSuppressed(viewers);
+                return 0;
+            }
+
+            final int sent = levelOfDetail.send(this, changes, tiers);
+            manager.recordMetadataSent(sent);
+            return sent;
+        }
+
+        if (changes.isEmpty()) {
+            manager.recordMetadataSuppressed(viewers);
+            return 0;
+        }
+
+        final WrapperPlayServerEntityMetadata packet = new WrapperPlayServerEntityMetadata(
+                this.passenger.getEntityId(),
+                changes);
+
+        final OutboundPacketQueue queue = NameTags.getInstance().getOutboundQueue();
+
+        int sent = 0;
+        for (final UUID viewerId : this.passenger.getViewers()) {
+            final Player viewer = Bukkit.getPlayer(viewerId);
+            final User user = viewer == null ? null : PacketEvents.getAPI().getPlayerManager().getUser(viewer);
+
+            if (user == null)
+                continue;
+
+            // Behind the spawn if it's still queued, otherwise the client would drop it
+            queue.send(user, this.passenger.getEntityId(), packet);
+            sent++;
+        }
+
+        manager.recordMetadataSent(sent);
+        return sent;
+    }
+
+    public @NotNull LevelOfDetail getLevelOfDetail() {
+        return levelOfDetail;
     }
 
+    /**
+     * Change the meta through {@link #modify(Consumer)}. Changes made to it
+     * outside of that are only sent by the next {@link #sendMetadataChanges()}.
+     */
     public @NotNull TextDisplayMeta getMeta() {
+        return meta();
+    }
+
+    private @NotNull TextDisplayMeta meta() {
         return this.passenger.getEntityMeta(TextDisplayMeta.class);
     }
 
+    /**
+     * The tag's current text along with a version that increases every time
+     * the text is replaced, which can be used to key anything derived from it.
+     */
+    public @NotNull TextSnapshot getTextSnapshot() {
+        final Component text = meta().getText();
+        TextSnapshot snapshot = this.textSnapshot;
+
+        // Text is only set when it changed, so comparing the instance is enough
+        if (snapshot.text() != text) {
+            synchronized (this) {
+                snapshot = this.textSnapshot;
+                if (snapshot.text() != text) {
+                    snapshot = new TextSnapshot(snapshot.version() + 1, text, compileRelational(text));
+                    this.textSnapshot = snapshot;
+                }
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Only worked out when the text changes, see {@link #getTextSnapshot()}.
+     *
+     * @return Whether the tag's current text has relational placeholders in.
+     */
+    public boolean hasRelationalPlaceholders() {
+        return getTextSnapshot().relational();
+    }
+
+    private static @Nullable RelationalTemplate compileRelational(@Nullable Component text) {
+        if (text instanceof TextComponent textComponent
+                && ComponentUtils.contains(textComponent, RELATIONAL_PLACEHOLDER_PREFIX)) {
+            return RelationalTemplate.compile(text);
+        }
+        return null;
+    }
+
+    private @NotNull WrapperPlayServerSpawnEntity createSpawnPacket() {
+        final Location location = this.passenger.getLocation();
+
+        return new WrapperPlayServerSpawnEntity(
+                this.passenger.getEntityId(),
+                Optional.of(this.passenger.getUuid()),
+                EntityTypes.TEXT_DISPLAY,
+                location.getPosition(),
+                location.getPitch(),
+                location.getYaw(),
+                location.getYaw(),
+                0,
+                Optional.empty());
+    }
+
     public void sendPassengerPacket(Player target) {
         PacketEvents.getAPI()
                 .getPlayerManager()
@@ -93,22 +445,65 @@ public class NameTagEntity {
     }
 
     public PacketWrapper<?> getPassengersPacket() {
-        int[] previousPackets = NameTags.getInstance()
-                .getEntityManager()
-                .getLastSentPassengers(getBukkitEntity().getEntityId())
-                .orElseGet(() -> {
-                    int[] bukkitPassengers = this.bukkitEntity.getPassengers()
-                            .stream()
-                            .mapToInt(Entity::getEntityId)
-                            .toArray();
+        return new WrapperPlayServerSetPassengers(bukkitEntity.getEntityId(), getPassengerIds());
+    }
+
+    /**
+     * The entity's passengers followed by the tag. The array is shared, so it
+     * must not be modified.
+     */
+    public int @NotNull [] getPassengerIds() {
+        final long version = this.passengersVersion.get();
+        final PassengerIds cached = this.passengerIds;
+
+        if (cached != null && cached.version() == version) {
+            return cached.ids();
+        }
+
+        final List<Entity> bukkitPassengers = this.bukkitEntity.getPassengers();
+        final int[] ids = new int[bukkitPassengers.size() + 1];
+
+        for (int i = 0; i < bukkitPassengers.size(); i++) {
+            ids[i] = bukkitPassengers.get(i).getEntityId();
+        }
+        ids[ids.length - 1] = getPassenger().getEntityId();
+
+        this.passengerIds = new PassengerIds(version, ids);
+        return ids;
+    }
+
+    /**
+     * Returns the cached passengers if they are the given passengers followed
+     * by the tag, otherwise caches a new array with the tag appended.
+     *
+     * @param passengers The passengers the server is sending, without the tag.
+     */
+    public int @NotNull [] getPassengerIdsWith(int @NotNull [] passengers) {
+        final long version = this.passengersVersion.get();
+        final PassengerIds cached = this.passengerIds;
+
+        if (cached != null && cached.matches(passengers)) {
+            return cached.ids();
+        }
+
+        final int[] ids = Arrays.copyOf(passengers, passengers.length + 1);
+        ids[ids.length - 1] = getPassenger().getEntityId();
 
-                    int[] passengers = Arrays.copyOf(bukkitPassengers, bukkitPassengers.length + 1);
-                    passengers[passengers.length - 1] = getPassenger().getEntityId();
+        // The server's packet is the most recent composition, so it's valid for the current version
+        this.passengerIds = new PassengerIds(version, ids);
+        return ids;
+    }
 
-                    return passengers;
-                });
+    /**
+     * Marks the cached passengers as stale, e.g. when something mounts or dismounts the entity.
+     */
+    public void invalidatePassengers() {
+        this.passengersVersion.incrementAndGet();
+    }
 
-        return new WrapperPlayServerSetPassengers(bukkitEntity.getEntityId(), previousPackets);
+    public boolean hasCachedPassengers() {
+        final PassengerIds cached = this.passengerIds;
+        return cached != null && cached.version() == this.passengersVersion.get();
     }
 
     public @NotNull Entity getBukkitEntity() {
@@ -134,7 +529,42 @@ public class NameTagEntity {
     }
 
     public void destroy() {
+        final NameTagEntityManager manager = NameTags.getInstance().getEntityManager();
+        final OutboundPacketQueue queue = NameTags.getInstance().getOutboundQueue();
+        synchronized (this.viewerLock) {
+            for (final UUID viewer : this.passenger.getViewers()) {
+                queue.purge(viewer, this.passenger.getEntityId());
+                manager.untrackViewer(viewer, this);
+            }
+        }
+
         this.passenger.despawn();
         this.getTraits().destroy();
     }
+
+    /**
+     * @param relationalTemplate The text compiled for relational placeholders, or null if it has none.
+     */
+    public record TextSnapshot(long version, @Nullable Component text, @Nullable RelationalTemplate relationalTemplate) {
+
+        public boolean relational() {
+            return relationalTemplate != null;
+        }
+    }
+
+    private record PassengerIds(long version, int @NotNull [] ids) {
+        private boolean matches(int @NotNull [] passengers) {
+            if (ids.length != passengers.length + 1) {
+                return false;
+            }
+
+            for (int i = 0; i < passengers.length; i++) {
+                if (ids[i] != passengers[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
 }
@@ -1,22 +1,27 @@
 package com.mattmx.nametags.entity;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.retrooper.packetevents.protocol.player.User;
 import com.github.retrooper.packetevents.util.Vector3f;
 import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.config.LodTier;
 import com.mattmx.nametags.event.NameTagEntityCreateEvent;
+import com.mattmx.nametags.metrics.Counter;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
+import com.mattmx.nametags.packet.PlayServerSpawnEntityHandler;
+import com.mattmx.nametags.utils.ConcurrentIntObjectMap;
 import me.tofaa.entitylib.meta.display.AbstractDisplayMeta;
 import me.tofaa.entitylib.meta.display.TextDisplayMeta;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 
 public class NameTagEntityManager {
@@ -24,14 +29,27 @@ public class NameTagEntityManager {
     // Set of player UUIDs whose nametags are disabled by an admin
     private final Set<UUID> disabledNameTags = ConcurrentHashMap.newKeySet();
 
-    private final Cache<UUID, NameTagEntity> nameTagCache = Caffeine.newBuilder()
-            .expireAfterAccess(Duration.ofMinutes(1))
-            .removalListener(this::handleRemoval)
-            .build();
-
-    private final ConcurrentHashMap<Integer, NameTagEntity> nameTagEntityByEntityId = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Integer, NameTagEntity> nameTagEntityByPassengerEntityId = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Integer, int[]> lastSentPassengers = new ConcurrentHashMap<>();
+    // How often to look for tags whose entity is gone without us being told
+    private static final long SWEEP_INTERVAL_TICKS = 20L * 60L;
+    private static final Counter SWEPT = NameTagsMetrics.counter("registry.swept");
+
+    // Tags are added when created and removed when their entity quits or leaves the world,
+    // every index below is only changed together with this one
+    private final ConcurrentHashMap<UUID, NameTagEntity> nameTagsByUuid = new ConcurrentHashMap<>();
+
+    // Looked up for most outgoing entity packets, so these avoid boxing the id
+    private final ConcurrentIntObjectMap<NameTagEntity> nameTagEntityByEntityId = new ConcurrentIntObjectMap<>();
+    private final ConcurrentIntObjectMap<NameTagEntity> nameTagEntityByPassengerEntityId = new ConcurrentIntObjectMap<>();
+    // Which tags each player is currently a viewer of, so a quit doesn't have to check every tag
+    private final ConcurrentHashMap<UUID, Set<NameTagEntity>> tagsByViewer = new ConcurrentHashMap<>();
+    private final RefreshScheduler refreshScheduler = new RefreshScheduler();
+    private final PendingAttachments pendingAttachments = new PendingAttachments();
+    // Tags with level of detail updates waiting on a viewer's interval
+    private final Set<NameTagEntity> deferredTags = ConcurrentHashMap.newKeySet();
+    private final LongAdder metadataPacketsSent = new LongAdder();
+    private final LongAdder metadataPacketsSuppressed = new LongAdder();
+    private @Nullable BukkitTask sweepTask = null;
+    private @Nullable BukkitTask flushTask = null;
 
     private @NotNull BiConsumer<Entity, TextDisplayMeta> defaultProvider = (entity, meta) -> {
         meta.setText(entity.name());
@@ -40,12 +58,33 @@ public class NameTagEntityManager {
         meta.setViewRange(50f);
     };
 
+    /**
+     * Starts the periodic sweep for tags whose entity no longer exists, and the
+     * per-tick task that sends level of detail updates whose interval ran out.
+     */
+    public void start(@NotNull NameTags plugin) {
+        stop();
+        sweepTask = Bukkit.getScheduler().runTaskTimer(plugin, this::sweep, SWEEP_INTERVAL_TICKS, SWEEP_INTERVAL_TICKS);
+        flushTask = Bukkit.getScheduler().runTaskTimer(plugin, this::flush, 1L, 1L);
+    }
+
+    public void stop() {
+        if (sweepTask != null) {
+            sweepTask.cancel();
+            sweepTask = null;
+        }
+
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+    }
+
     public @NotNull NameTagEntity getOrCreateNameTagEntity(@NotNull Entity entity) {
-        NameTagEntity tagEntity = nameTagCache.get(entity.getUniqueId(), uuid -> {
+        final NameTagEntity tag = nameTagsByUuid.computeIfAbsent(entity.getUniqueId(), uuid -> {
             NameTagEntity newlyCreated = new NameTagEntity(entity);
 
-            newlyCreated.getPassenger().consumeEntityMeta(TextDisplayMeta.class,
-                    meta -> defaultProvider.accept(entity, meta));
+            newlyCreated.modify(meta -> defaultProvider.accept(entity, meta));
 
             Bukkit.getPluginManager().callEvent(new NameTagEntityCreateEvent(newlyCreated));
 
@@ -54,28 +93,130 @@ public class NameTagEntityManager {
 
             return newlyCreated;
         });
-        return Objects.requireNonNull(tagEntity,
-                "Cache.get(…) unexpectedly returned null for UUID " + entity.getUniqueId());
+
+        attachPending(tag);
+
+        return tag;
+    }
+
+    /**
+     * Attaches the tag for every viewer that was sent the entity's spawn before the tag existed.
+     */
+    public void attachPending(@NotNull NameTagEntity tag) {
+        for (final User viewer : pendingAttachments.drain(tag.getBukkitEntity().getUniqueId())) {
+            NameTags.getInstance()
+                    .getViewerExecutor()
+                    .execute(viewer.getUUID(), () -> PlayServerSpawnEntityHandler.attachPassengerToEntity(tag, viewer));
+        }
     }
 
+    /**
+     * Removes the entity's tag from every index. The tag is not destroyed.
+     *
+     * @return The removed tag, or null if the entity didn't have one.
+     */
     public @Nullable NameTagEntity removeEntity(@NotNull Entity entity) {
-        lastSentPassengers.remove(entity.getEntityId());
-        nameTagCache.invalidate(entity.getUniqueId());
+        final NameTagEntity removed = nameTagsByUuid.remove(entity.getUniqueId());
 
-        final NameTagEntity removed = nameTagEntityByEntityId.remove(entity.getEntityId());
-        if (removed != null) {
-            nameTagEntityByPassengerEntityId.remove(removed.getPassenger().getEntityId());
+        if (removed == null) {
+            return null;
         }
 
+        // Only remove the ids if they still point at this tag
+        nameTagEntityByEntityId.remove(removed.getBukkitEntity().getEntityId(), removed);
+        nameTagEntityByPassengerEntityId.remove(removed.getPassenger().getEntityId(), removed);
+
         return removed;
     }
 
+    void markDeferred(@NotNull NameTagEntity tag) {
+        deferredTags.add(tag);
+    }
+
+    private void flush() {
+        if (!deferredTags.isEmpty()) {
+            final List<LodTier> tiers = NameTags.getInstance().getLodTiers();
+            final long now = System.nanoTime();
+            final Iterator<NameTagEntity> iterator = deferredTags.iterator();
+
+            while (iterator.hasNext()) {
+                final NameTagEntity tag = iterator.next();
+                final LevelOfDetail levelOfDetail = tag.getLevelOfDetail();
+
+                if (tiers.isEmpty() || !tag.getPassenger().isSpawned()) {
+                    iterator.remove();
+                    continue;
+                }
+
+                // Places new viewers, this is the main thread so their locations can be read
+                levelOfDetail.updateTiers(tag, tag.getBukkitEntity().getLocation(), tiers);
+
+                if (!levelOfDetail.hasPending()) {
+                    iterator.remove();
+                } else if (levelOfDetail.isDue(now)) {
+                    // Marked again by the send if some viewers still have to wait
+                    iterator.remove();
+                    tag.sendMetadataChanges();
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the player to another level of detail tier where needed, both for the
+     * tags they see and for the viewers of their own tag. Called on the main
+     * thread when they move to another block.
+     *
+     * @param location Where the player is now.
+     */
+    public void updateLevelOfDetail(@NotNull Player player, @NotNull Location location) {
+        final List<LodTier> tiers = NameTags.getInstance().getLodTiers();
+
+        if (tiers.isEmpty())
+            return;
+
+        for (final NameTagEntity tag : getTagsViewedBy(player.getUniqueId())) {
+            if (tag.getLevelOfDetail().updateTier(player, location, tag.getBukkitEntity().getLocation(), tiers)) {
+                markDeferred(tag);
+            }
+        }
+
+        final NameTagEntity own = getNameTagEntity(player);
+        if (own != null && own.getLevelOfDetail().updateTiers(own, location, tiers)) {
+            markDeferred(own);
+        }
+    }
+
+    /**
+     * Destroys any tag whose entity is no longer online or valid, in case a
+     * quit or remove event was missed.
+     */
+    private void sweep() {
+        pendingAttachments.expire();
+
+        for (final NameTagEntity tag : nameTagsByUuid.values()) {
+            final Entity entity = tag.getBukkitEntity();
+
+            final boolean gone = entity instanceof Player player
+                    ? !player.isOnline()
+                    : !entity.isValid();
+
+            if (!gone)
+                continue;
+
+            if (removeEntity(entity) == tag) {
+                tag.destroy();
+                SWEPT.increment();
+            }
+        }
+    }
+
     public @Nullable NameTagEntity getNameTagEntity(@NotNull Entity entity) {
-        return nameTagCache.getIfPresent(entity.getUniqueId());
+        return nameTagsByUuid.get(entity.getUniqueId());
     }
 
     public @Nullable NameTagEntity getNameTagEntityByUUID(UUID uuid) {
-        return nameTagCache.getIfPresent(uuid);
+        return nameTagsByUuid.get(uuid);
     }
 
     public @Nullable NameTagEntity getNameTagEntityById(int entityId) {
@@ -87,31 +228,75 @@ public class NameTagEntityManager {
     }
 
     public @NotNull Map<UUID, NameTagEntity> getMappedEntities() {
-        return nameTagCache.asMap();
+        return Collections.unmodifiableMap(nameTagsByUuid);
     }
 
     public @NotNull Collection<NameTagEntity> getAllEntities() {
-        return nameTagCache.asMap().values();
+        return Collections.unmodifiableCollection(nameTagsByUuid.values());
     }
 
-    public void setDefaultProvider(@NotNull BiConsumer<Entity, TextDisplayMeta> consumer) {
-        this.defaultProvider = consumer;
+    void trackViewer(@NotNull UUID viewer, @NotNull NameTagEntity tag) {
+        tagsByViewer.computeIfAbsent(viewer, (uuid) -> ConcurrentHashMap.newKeySet())
+            .add(tag);
     }
 
-    public void setLastSentPassengers(int entityId, int[] passengers) {
-        this.lastSentPassengers.put(entityId, passengers);
+    void untrackViewer(@NotNull UUID viewer, @NotNull NameTagEntity tag) {
+        tagsByViewer.computeIfPresent(viewer, (uuid, tags) -> {
+            tags.remove(tag);
+            return tags.isEmpty() ? null : tags;
+        });
     }
 
-    public void removeLastSentPassengersCache(int entityId) {
-        this.lastSentPassengers.remove(entityId);
+    /**
+     * @param viewer The player's UUID.
+     * @return Every tag the player is currently a viewer of.
+     */
+    public @NotNull Set<NameTagEntity> getTagsViewedBy(@NotNull UUID viewer) {
+        final Set<NameTagEntity> tags = tagsByViewer.get(viewer);
+        return tags == null ? Set.of() : Collections.unmodifiableSet(tags);
+    }
+
+    /**
+     * Removes the player as a viewer from every tag they can currently see.
+     *
+     * @param viewer The player's UUID.
+     */
+    public void removeViewerFromAll(@NotNull UUID viewer) {
+        final Set<NameTagEntity> tags = tagsByViewer.remove(viewer);
+
+        if (tags == null)
+            return;
+
+        for (final NameTagEntity tag : tags) {
+            tag.removeViewer(viewer);
+        }
+    }
+
+    public int getViewerIndexSize() {
+        return tagsByViewer.size();
+    }
+
+    public @NotNull RefreshScheduler getRefreshScheduler() {
+        return refreshScheduler;
+    }
+
+    public @NotNull PendingAttachments getPendingAttachments() {
+        return pendingAttachments;
+    }
+
+    public void setDefaultProvider(@NotNull BiConsumer<Entity, TextDisplayMeta> consumer) {
+        this.defaultProvider = consumer;
     }
 
-    public @NotNull Optional<int[]> getLastSentPassengers(int entityId) {
-        return Optional.ofNullable(this.lastSentPassengers.get(entityId));
+    /**
+     * Applies the current default provider to an existing tag, e.g. after the config was reloaded.
+     */
+    public void applyDefaults(@NotNull NameTagEntity tag) {
+        tag.modify(meta -> defaultProvider.accept(tag.getBukkitEntity(), meta));
     }
 
     public int getCacheSize() {
-        return nameTagCache.asMap().size();
+        return nameTagsByUuid.size();
     }
 
     public int getEntityIdMapSize() {
@@ -122,8 +307,36 @@ public class NameTagEntityManager {
         return nameTagEntityByPassengerEntityId.size();
     }
 
-    public int getLastSentPassengersSize() {
-        return lastSentPassengers.size();
+    public int getCachedPassengersCount() {
+        int cached = 0;
+        for (final NameTagEntity tag : nameTagsByUuid.values()) {
+            if (tag.hasCachedPassengers()) {
+                cached++;
+            }
+        }
+        return cached;
+    }
+
+    public void recordMetadataSent(int packets) {
+        metadataPacketsSent.add(packets);
+    }
+
+    public void recordMetadataSuppressed(int packets) {
+        metadataPacketsSuppressed.add(packets);
+    }
+
+    /**
+     * @return How many metadata packets were sent to viewers because an index changed.
+     */
+    public long getMetadataPacketsSent() {
+        return metadataPacketsSent.sum();
+    }
+
+    /**
+     * @return How many metadata packets were not sent to viewers because nothing changed.
+     */
+    public long getMetadataPacketsSuppressed() {
+        return metadataPacketsSuppressed.sum();
     }
 
     /**
@@ -165,29 +378,4 @@ public class NameTagEntityManager {
             disabledNameTags.remove(uuid);
         }
     }
-
-    private void handleRemoval(UUID uuid, NameTagEntity tagEntity, RemovalCause cause) {
-        if (cause != RemovalCause.EXPIRED || tagEntity == null)
-            return;
-
-        Entity entity = tagEntity.getBukkitEntity();
-
-        if (entity instanceof Player player) {
-            if (!player.isOnline()) {
-                tagEntity.destroy();
-                removeEntity(entity);
-            } else {
-                this.nameTagCache.put(uuid, tagEntity);
-            }
-        } else {
-            Bukkit.getScheduler().runTask(NameTags.getInstance(), () -> {
-                if (Bukkit.getEntity(uuid) == null) {
-                    tagEntity.destroy();
-                    removeEntity(entity);
-                } else {
-                    this.nameTagCache.put(uuid, tagEntity);
-                }
-            });
-        }
-    }
 }
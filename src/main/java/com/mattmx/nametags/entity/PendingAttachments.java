@@ -0,0 +1,112 @@
+package com.mattmx.nametags.entity;
+
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.mattmx.nametags.metrics.Counter;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Viewers that were sent an entity's spawn before the entity had a tag. They
+ * are attached as soon as the tag is created, instead of retrying on a timer.
+ */
+public class PendingAttachments {
+    // The tag is normally created within a tick, anything older is from an entity that never got one
+    private static final long LIFETIME_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final Counter ADDED = NameTagsMetrics.counter("attach.pending.added");
+    private static final Counter DRAINED = NameTagsMetrics.counter("attach.pending.drained");
+    private static final Counter EXPIRED = NameTagsMetrics.counter("attach.pending.expired");
+
+    private final @NotNull ConcurrentHashMap<UUID, Pending> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Remembers that the viewer should see the owner's tag once it exists.
+     *
+     * @param entityId The owner's entity id, so the viewer can be dropped when it's destroyed for them.
+     */
+    public void add(@NotNull UUID owner, int entityId, @NotNull User viewer) {
+        // Added under the owner's lock, so a drain can't take the entry between looking it up and adding to it
+        pending.compute(owner, (uuid, entry) -> {
+            final Pending added = entry != null ? entry : new Pending(System.nanoTime(), entityId, new ConcurrentHashMap<>());
+            added.viewers().put(viewer.getUUID(), viewer);
+            return added;
+        });
+        ADDED.increment();
+    }
+
+    /**
+     * Removes and returns every viewer waiting for the owner's tag.
+     */
+    public @NotNull Collection<User> drain(@NotNull UUID owner) {
+        // Nearly every call has nothing pending
+        if (pending.isEmpty())
+            return List.of();
+
+        final Pending removed = pending.remove(owner);
+
+        if (removed == null)
+            return List.of();
+
+        DRAINED.add(removed.viewers().size());
+        return removed.viewers().values();
+    }
+
+    public void remove(@NotNull UUID owner) {
+        pending.remove(owner);
+    }
+
+    /**
+     * Drops the viewer from whatever is waiting for the entity, called when the
+     * entity is destroyed for them before its tag was created.
+     */
+    public void removeViewer(int entityId, @NotNull UUID viewer) {
+        if (pending.isEmpty())
+            return;
+
+        for (final UUID owner : pending.keySet()) {
+            pending.computeIfPresent(owner, (uuid, entry) -> {
+                if (entry.entityId() != entityId)
+                    return entry;
+
+                entry.viewers().remove(viewer);
+                return entry.viewers().isEmpty() ? null : entry;
+            });
+        }
+    }
+
+    /**
+     * Drops anything that has been waiting for longer than its lifetime.
+     */
+    public void expire() {
+        final long now = System.nanoTime();
+
+        pending.entrySet().removeIf((entry) -> {
+            if (now - entry.getValue().createdAt() < LIFETIME_NANOS)
+                return false;
+
+            EXPIRED.add(entry.getValue().viewers().size());
+            return true;
+        });
+    }
+
+    /**
+     * @return How many viewers are waiting across every owner.
+     */
+    public int size() {
+        int size = 0;
+        for (final Pending entry : pending.values()) {
+            size += entry.viewers().size();
+        }
+        return size;
+    }
+
+    private record Pending(long createdAt, int entityId, @NotNull Map<UUID, User> viewers) {
+    }
+}
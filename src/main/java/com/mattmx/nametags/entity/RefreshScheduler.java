@@ -0,0 +1,266 @@
+package com.mattmx.nametags.entity;
+
+import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.entity.trait.RefreshTrait;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Drives every {@link RefreshTrait} from a single repeating task.
+ * <p>
+ * Traits are grouped into buckets by their period (in ticks). Each bucket
+ * is split into one slot per tick of its period, and a trait is placed into
+ * one of those slots with a small amount of jitter, so a bucket of 400 tags
+ * refreshing every 10 ticks runs ~40 tags per tick instead of 400 at once.
+ * <p>
+ * Every tick the slot that is due in each bucket is handed to the plugin
+ * executor as a single batch.
+ */
+public class RefreshScheduler {
+    public static final long TICK_MILLIS = 50L;
+
+    private final ConcurrentHashMap<Long, Bucket> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<RefreshTrait, Bucket> placements = new ConcurrentHashMap<>();
+    private @Nullable BukkitTask task = null;
+    private long currentTick = 0L;
+
+    public void start(@NotNull NameTags plugin) {
+        stop();
+        this.task = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::tick, 1L, 1L);
+    }
+
+    public void stop() {
+        if (this.task != null) {
+            this.task.cancel();
+            this.task = null;
+        }
+    }
+
+    public void schedule(@NotNull RefreshTrait trait) {
+        placements.compute(trait, (key, previous) -> place(trait, previous));
+    }
+
+    /**
+     * Moves an already scheduled trait into the bucket matching its current period.
+     * Does nothing if the trait is not scheduled.
+     */
+    public void reschedule(@NotNull RefreshTrait trait) {
+        placements.computeIfPresent(trait, (key, previous) -> place(trait, previous));
+    }
+
+    private @NotNull Bucket place(@NotNull RefreshTrait trait, @Nullable Bucket previous) {
+        final long periodTicks = trait.getPeriodTicks();
+
+        if (previous != null && previous.periodTicks == periodTicks) {
+            return previous;
+        }
+
+        if (previous != null) {
+            leave(trait, previous);
+        }
+
+        // Added under the bucket's key so it can't be removed for being empty in between
+        return buckets.compute(periodTicks, (key, bucket) -> {
+            final Bucket target = bucket != null ? bucket : new Bucket(key);
+            target.add(trait);
+            return target;
+        });
+    }
+
+    public void unschedule(@NotNull RefreshTrait trait) {
+        final Bucket bucket = placements.remove(trait);
+
+        if (bucket != null) {
+            leave(trait, bucket);
+        }
+    }
+
+    /**
+     * Removes the trait from its bucket, and the bucket once nothing is left in it
+     * so it isn't checked every tick.
+     */
+    private void leave(@NotNull RefreshTrait trait, @NotNull Bucket bucket) {
+        buckets.computeIfPresent(bucket.periodTicks, (key, current) -> {
+            current.remove(trait);
+            return current.isEmpty() ? null : current;
+        });
+    }
+
+    /**
+     * Runs a trait's update on the plugin executor without waiting for its slot.
+     */
+    public void runNow(@NotNull RefreshTrait trait) {
+        NameTags.getInstance().getExecutor().execute(() -> {
+            try {
+                trait.refresh();
+            } catch (Throwable error) {
+                trait.getPlugin()
+                    .getLogger()
+                    .log(Level.WARNING, "Failed to refresh name tag", error);
+            }
+        });
+    }
+
+    public boolean isScheduled(@NotNull RefreshTrait trait) {
+        return placements.containsKey(trait);
+    }
+
+    public @NotNull Collection<Bucket> getBuckets() {
+        return buckets.values();
+    }
+
+    public int getScheduledCount() {
+        return placements.size();
+    }
+
+    private void tick() {
+        final long tick = this.currentTick++;
+
+        for (final Bucket bucket : buckets.values()) {
+            bucket.tick(tick);
+        }
+    }
+
+    public static long toTicks(long period, @NotNull TimeUnit unit) {
+        return Math.max(1L, Math.round(unit.toMillis(period) / (double) TICK_MILLIS));
+    }
+
+    public static final class Bucket {
+        private final long periodTicks;
+        private final Slot[] slots;
+        private volatile long lastLagMillis = 0L;
+        private volatile long maxLagMillis = 0L;
+        private volatile long lastBatchNanos = 0L;
+        private final LongAdder skippedBatches = new LongAdder();
+
+        private Bucket(long periodTicks) {
+            this.periodTicks = periodTicks;
+            this.slots = new Slot[(int) Math.min(periodTicks, Integer.MAX_VALUE)];
+
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new Slot();
+            }
+        }
+
+        private void add(@NotNull RefreshTrait trait) {
+            // Power of two choices keeps the slots balanced while still spreading
+            // tags that were created on the same tick across the whole period.
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final Slot first = slots[random.nextInt(slots.length)];
+            final Slot second = slots[random.nextInt(slots.length)];
+
+            (first.traits.size() <= second.traits.size() ? first : second).traits.add(trait);
+        }
+
+        private void remove(@NotNull RefreshTrait trait) {
+            for (final Slot slot : slots) {
+                if (slot.traits.remove(trait)) {
+                    return;
+                }
+            }
+        }
+
+        private void tick(long tick) {
+            final Slot slot = slots[(int) (tick % slots.length)];
+
+            if (slot.traits.isEmpty()) {
+                return;
+            }
+
+            // Don't stack batches up if the previous run for this slot hasn't finished yet.
+            if (!slot.running.compareAndSet(false, true)) {
+                skippedBatches.increment();
+                return;
+            }
+
+            final long now = System.nanoTime();
+            if (slot.lastRunNanos != 0L) {
+                long lag = TimeUnit.NANOSECONDS.toMillis(now - slot.lastRunNanos) - periodTicks * TICK_MILLIS;
+                lastLagMillis = Math.max(0L, lag);
+                maxLagMillis = Math.max(maxLagMillis, lastLagMillis);
+            }
+            slot.lastRunNanos = now;
+
+            try {
+                NameTags.getInstance().getExecutor().execute(() -> runBatch(slot));
+            } catch (Throwable error) {
+                slot.running.set(false);
+                throw error;
+            }
+        }
+
+        private void runBatch(@NotNull Slot slot) {
+            final long start = System.nanoTime();
+            try {
+                for (final RefreshTrait trait : slot.traits) {
+                    try {
+                        trait.run();
+                    } catch (Throwable error) {
+                        trait.getPlugin()
+                            .getLogger()
+                            .log(Level.WARNING, "Failed to refresh name tag", error);
+                    }
+                }
+            } finally {
+                lastBatchNanos = System.nanoTime() - start;
+                NameTagsMetrics.REFRESH_BATCH.record(lastBatchNanos);
+                slot.running.set(false);
+            }
+        }
+
+        public long getPeriodTicks() {
+            return periodTicks;
+        }
+
+        private boolean isEmpty() {
+            for (final Slot slot : slots) {
+                if (!slot.traits.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int size() {
+            int size = 0;
+            for (final Slot slot : slots) {
+                size += slot.traits.size();
+            }
+            return size;
+        }
+
+        public long getLastLagMillis() {
+            return lastLagMillis;
+        }
+
+        public long getMaxLagMillis() {
+            return maxLagMillis;
+        }
+
+        public long getLastBatchNanos() {
+            return lastBatchNanos;
+        }
+
+        public long getSkippedBatches() {
+            return skippedBatches.sum();
+        }
+    }
+
+    private static final class Slot {
+        private final Set<RefreshTrait> traits = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean running = new AtomicBoolean(false);
+        private volatile long lastRunNanos = 0L;
+    }
+}
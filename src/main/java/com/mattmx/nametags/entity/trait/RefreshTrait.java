@@ -1,47 +1,145 @@
 package com.mattmx.nametags.entity.trait;
 
+import com.mattmx.nametags.NameTags;
 import com.mattmx.nametags.entity.NameTagEntity;
-import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
-import org.bukkit.Bukkit;
+import com.mattmx.nametags.entity.RefreshScheduler;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public class RefreshTrait extends Trait {
-    private @Nullable ScheduledTask task = null;
+    private static final AtomicInteger SUSPENDED = new AtomicInteger();
+
     private final JavaPlugin plugin;
-    private final long period;
-    private final TimeUnit unit;
+    private volatile long periodTicks;
     private final Consumer<NameTagEntity> update;
-    private boolean paused = false;
+    private volatile boolean paused = false;
+    private final AtomicBoolean suspended = new AtomicBoolean(false);
+    private final AtomicBoolean running = new AtomicBoolean(false);
 
     public RefreshTrait(@NotNull JavaPlugin plugin, long period, TimeUnit unit, Consumer<NameTagEntity> update) {
         this.plugin = plugin;
-        this.period = period;
-        this.unit = unit;
+        this.periodTicks = RefreshScheduler.toTicks(period, unit);
         this.update = update;
     }
 
     @Override
     public void onEnable() {
-        this.task = Bukkit.getAsyncScheduler()
-            .runAtFixedRate(plugin, (task) -> {
+        scheduler().schedule(this);
+    }
+
+    /**
+     * Called by the {@link RefreshScheduler} once per period.
+     */
+    public void run() {
+        // Don't process if paused
+        if (this.isPaused()) {
+            return;
+        }
+
+        // If the tag is not currently spawned in then we shouldn't process
+        if (!getTag().getPassenger().isSpawned()) {
+            return;
+        }
+
+        // Nobody can see the tag, so skip everything until someone can, see catchUp()
+        if (getTag().getPassenger().getViewers().isEmpty()) {
+            if (suspended.compareAndSet(false, true)) {
+                SUSPENDED.incrementAndGet();
+            }
+            return;
+        }
+
+        resume();
+        runUpdate();
+    }
 
-                // Don't process if paused
-                if (!this.isPaused()) {
+    /**
+     * Hands the update to the executor straight away if the trait was suspended
+     * for having no viewers. Called before the first viewer is added, so the
+     * update starts before their queued spawn is flushed.
+     */
+    public void catchUp() {
+        if (!resume()) {
+            return;
+        }
+
+        if (this.isPaused() || !getTag().getPassenger().isSpawned()) {
+            return;
+        }
+
+        scheduler().runNow(this);
+    }
 
-                    // If the tag is not currently spawned in then we shouldn't process
-                    if (!getTag().getPassenger().isSpawned()) {
-                        return;
-                    }
+    /**
+     * Runs the update unless the trait is paused, the tag isn't spawned or the
+     * update is already running.
+     */
+    public void refresh() {
+        if (this.isPaused() || !getTag().getPassenger().isSpawned()) {
+            return;
+        }
 
-                    update.accept(getTag());
-                }
+        runUpdate();
+    }
 
-            }, 0L, period, unit);
+    private void runUpdate() {
+        // A batch and a catch up can overlap, the one that's already running wins
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            update.accept(getTag());
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private boolean resume() {
+        if (suspended.compareAndSet(true, false)) {
+            SUSPENDED.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isSuspended() {
+        return suspended.get();
+    }
+
+    /**
+     * @return How many tags currently skip their refresh for having no viewers.
+     */
+    public static int getSuspendedCount() {
+        return SUSPENDED.get();
+    }
+
+    /**
+     * Changes how often this trait runs. The trait is moved to the matching
+     * bucket of the scheduler rather than having its task recreated.
+     */
+    public void setPeriod(long period, @NotNull TimeUnit unit) {
+        final long ticks = RefreshScheduler.toTicks(period, unit);
+
+        if (ticks == this.periodTicks) {
+            return;
+        }
+
+        this.periodTicks = ticks;
+        scheduler().reschedule(this);
+    }
+
+    public long getPeriodTicks() {
+        return this.periodTicks;
+    }
+
+    public @NotNull JavaPlugin getPlugin() {
+        return this.plugin;
     }
 
     public void setPaused(boolean paused) {
@@ -55,9 +153,14 @@ public class RefreshTrait extends Trait {
     @Override
     public void onDestroy() {
         setPaused(true);
-        if (task != null) {
-            task.cancel();
-        }
+        resume();
+        scheduler().unschedule(this);
+    }
+
+    private static @NotNull RefreshScheduler scheduler() {
+        return NameTags.getInstance()
+            .getEntityManager()
+            .getRefreshScheduler();
     }
 
     public static @NotNull RefreshTrait ofMinutes(@NotNull JavaPlugin plugin, long minutes, Consumer<NameTagEntity> update) {
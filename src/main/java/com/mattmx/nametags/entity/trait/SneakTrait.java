@@ -44,7 +44,6 @@ public class SneakTrait extends Trait {
                 meta.setSeeThrough(previousSeeThrough);
             }
         });
-        getTag().getPassenger().refresh();
     }
 
     public Color withCustomSneakOpacity(@NotNull Color previous) {
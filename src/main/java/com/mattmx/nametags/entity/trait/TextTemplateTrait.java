@@ -0,0 +1,43 @@
+package com.mattmx.nametags.entity.trait;
+
+import com.mattmx.nametags.config.LodTier;
+import com.mattmx.nametags.config.TextTemplate;
+import net.kyori.adventure.text.Component;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Keeps the last render of a {@link TextTemplate} for a tag so unchanged
+ * lines don't have to be formatted again.
+ */
+public class TextTemplateTrait extends Trait {
+    private @Nullable TextTemplate.State state = null;
+    private TextTemplate.@Nullable State @NotNull [] tierStates = new TextTemplate.State[0];
+
+    public synchronized @Nullable Component render(@NotNull TextTemplate template, @NotNull Player self) {
+        if (state == null || !state.isFor(template)) {
+            state = template.newState();
+        }
+
+        return template.render(self, state);
+    }
+
+    /**
+     * Renders the text of every level of detail tier, see {@link LodTier#render(List, Player, TextTemplate.State[])}.
+     */
+    public synchronized @Nullable Component @NotNull [] renderTiers(@NotNull List<LodTier> tiers, @NotNull Player self) {
+        if (tierStates.length != tiers.size()) {
+            tierStates = new TextTemplate.State[tiers.size()];
+        }
+
+        return LodTier.render(tiers, self, tierStates);
+    }
+
+    public synchronized void invalidate() {
+        this.state = null;
+        this.tierStates = new TextTemplate.State[0];
+    }
+}
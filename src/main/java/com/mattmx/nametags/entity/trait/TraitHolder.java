@@ -4,13 +4,14 @@ import com.mattmx.nametags.entity.NameTagEntity;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 public class TraitHolder {
     private final @NotNull NameTagEntity owner;
-    private final @NotNull HashMap<Class<?>, Trait> map = new HashMap<>();
+    // Traits are added from both the main thread and refresh threads
+    private final @NotNull ConcurrentHashMap<Class<?>, Trait> map = new ConcurrentHashMap<>();
 
     public TraitHolder(@NotNull NameTagEntity owner) {
         this.owner = owner;
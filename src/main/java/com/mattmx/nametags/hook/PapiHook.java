@@ -1,37 +1,64 @@
 package com.mattmx.nametags.hook;
 
-import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
 import me.clip.placeholderapi.PlaceholderAPI;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.TextReplacementConfig;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 public class PapiHook {
     private static final @NotNull Pattern PLACEHOLDER_REGEX = Pattern.compile("%(?!rel_)[^%]+%");
-    private static final @NotNull Pattern RELATIVE_PLACEHOLDER_REGEX = Pattern.compile("%[^%]+%");
+
+    // Bounds how many threads can be inside PlaceholderAPI at once, null for no limit
+    private static volatile @Nullable Semaphore limiter = null;
+    private static volatile int limit = 0;
+    private static final @NotNull PlaceholderValueCache valueCache = new PlaceholderValueCache();
 
     public static boolean isPapi() {
         return Bukkit.getPluginManager().getPlugin("PlaceholderAPI") != null;
     }
 
+    /**
+     * Sets how many placeholder resolutions may run at the same time.
+     *
+     * @param maxConcurrent The limit, or zero or less for no limit.
+     */
+    public static void setConcurrencyLimit(int maxConcurrent) {
+        if (maxConcurrent == limit)
+            return;
+
+        limit = Math.max(0, maxConcurrent);
+        limiter = limit == 0 ? null : new Semaphore(limit);
+    }
+
     public static String setPlaceholders(Player one, String text) {
         if (!isPapi()) return text;
 
-        String formatted = text;
+        return limited(() -> PlaceholderAPI.setPlaceholders(one, text));
+    }
 
-        formatted = PlaceholderAPI.setPlaceholders(one, formatted);
+    /**
+     * Resolves a single placeholder, reusing its last value for the player
+     * until it expires, see {@link PlaceholderValueCache}.
+     */
+    public static @NotNull String resolvePlaceholder(@NotNull Player one, @NotNull String placeholder) {
+        if (!isPapi()) return placeholder;
 
-        return formatted;
+        return valueCache.get(one, placeholder,
+            () -> limited(() -> PlaceholderAPI.setPlaceholders(one, placeholder)));
     }
 
     public static Component setPlaceholders(Player one, Component text) {
         if (!isPapi()) return text;
 
-        return text.replaceText(TextReplacementConfig.builder()
+        return limited(() -> text.replaceText(TextReplacementConfig.builder()
             .match(PLACEHOLDER_REGEX)
             .replacement((match, ctx) -> {
                 String matchedText = match.group();
@@ -39,21 +66,60 @@ public class PapiHook {
                 return Component.text(parsed);
             })
             .build()
-        );
+        ));
     }
 
     public static Component setRelationalPlaceholders(Player one, Player two, Component text) {
         if (!isPapi()) return text;
 
-        return text.replaceText(TextReplacementConfig.builder()
-            .match(RELATIVE_PLACEHOLDER_REGEX)
-            .replacement((match, ctx) -> {
-                String matchedText = match.group();
-                String parsed = PlaceholderAPI.setRelationalPlaceholders(one, two, matchedText);
-                return NameTags.getInstance().getFormatter().format(parsed);
-            })
-            .build()
-        );
+        // Only the resolving holds a permit, the values are formatted after it's released
+        final RelationalTemplate template = RelationalTemplate.compile(text);
+        return template == null ? text : template.apply(one, two);
+    }
+
+    /**
+     * Resolves each placeholder on its own, see {@link RelationalTemplate}.
+     */
+    public static @NotNull String @NotNull [] setRelationalPlaceholders(Player one, Player two, @NotNull String @NotNull [] placeholders) {
+        if (!isPapi()) return placeholders;
+
+        return limited(() -> {
+            final String[] resolved = new String[placeholders.length];
+
+            for (int i = 0; i < placeholders.length; i++) {
+                resolved[i] = PlaceholderAPI.setRelationalPlaceholders(one, two, placeholders[i]);
+            }
+
+            return resolved;
+        });
+    }
+
+    private static <T> T limited(@NotNull Supplier<T> call) {
+        final Semaphore limiter = PapiHook.limiter;
+
+        if (limiter != null && !limiter.tryAcquire()) {
+            NameTagsMetrics.PLACEHOLDERS_LIMITED.increment();
+            limiter.acquireUninterruptibly();
+        }
+
+        final long start = NameTagsMetrics.PLACEHOLDERS.start();
+        try {
+            return call.get();
+        } finally {
+            NameTagsMetrics.PLACEHOLDERS.stop(start);
+
+            if (limiter != null) {
+                limiter.release();
+            }
+        }
+    }
+
+    public static int getConcurrencyLimit() {
+        return limit;
+    }
+
+    public static @NotNull PlaceholderValueCache getValueCache() {
+        return valueCache;
     }
 
 }
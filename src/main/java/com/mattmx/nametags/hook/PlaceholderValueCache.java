@@ -0,0 +1,146 @@
+package com.mattmx.nametags.hook;
+
+import com.mattmx.nametags.metrics.Counter;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Reuses the value of each (player, placeholder) pair until its time to live
+ * from the {@code placeholders} section of the config runs out.
+ * <p>
+ * A time to live is looked up by the full placeholder first, e.g.
+ * {@code player_ping}, then by its expansion, e.g. {@code player}, then the
+ * default. Zero resolves the placeholder every time.
+ */
+public class PlaceholderValueCache {
+    private static final Counter HITS = NameTagsMetrics.counter("placeholders.cache.hits");
+    private static final Counter MISSES = NameTagsMetrics.counter("placeholders.cache.misses");
+
+    private final @NotNull ConcurrentHashMap<UUID, ConcurrentHashMap<String, Value>> values = new ConcurrentHashMap<>();
+    // Time to live of every placeholder seen so far, worked out from the policies once
+    private final @NotNull ConcurrentHashMap<String, Long> ttls = new ConcurrentHashMap<>();
+    private volatile @NotNull Map<String, Long> policies = Map.of();
+    private volatile long defaultTtlNanos = 0L;
+
+    /**
+     * Replaces the policies and drops every value.
+     */
+    public void reload(@Nullable ConfigurationSection section) {
+        final Map<String, Long> policies = new ConcurrentHashMap<>();
+        long defaultTtl = 0L;
+
+        if (section != null) {
+            for (final String key : section.getKeys(false)) {
+                final long nanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, section.getLong(key, 0L)));
+
+                if (key.equals("default")) {
+                    defaultTtl = nanos;
+                } else {
+                    policies.put(key.toLowerCase(), nanos);
+                }
+            }
+        }
+
+        this.policies = policies;
+        this.defaultTtlNanos = defaultTtl;
+        this.ttls.clear();
+        this.values.clear();
+    }
+
+    /**
+     * @param player      The player the placeholder is resolved for.
+     * @param placeholder A single placeholder including its {@code %}s.
+     * @param resolver    Resolves the placeholder when there is no value to reuse.
+     * @return The cached or newly resolved value.
+     */
+    public @NotNull String get(@NotNull Player player, @NotNull String placeholder, @NotNull Supplier<String> resolver) {
+        final long ttl = getTtlNanos(placeholder);
+
+        if (ttl == 0L) {
+            return resolver.get();
+        }
+
+        final ConcurrentHashMap<String, Value> playerValues = values.computeIfAbsent(
+                player.getUniqueId(),
+                (uuid) -> new ConcurrentHashMap<>());
+        final long now = System.nanoTime();
+        final Value cached = playerValues.get(placeholder);
+
+        if (cached != null && now - cached.resolvedNanos() < ttl) {
+            HITS.increment();
+            return cached.value();
+        }
+
+        MISSES.increment();
+        final String value = resolver.get();
+        playerValues.put(placeholder, new Value(value, now));
+        return value;
+    }
+
+    public long getTtlNanos(@NotNull String placeholder) {
+        final Long cached = ttls.get(placeholder);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        final long ttl = computeTtl(placeholder);
+        ttls.put(placeholder, ttl);
+        return ttl;
+    }
+
+    private long computeTtl(@NotNull String placeholder) {
+        final Map<String, Long> policies = this.policies;
+
+        if (policies.isEmpty()) {
+            return defaultTtlNanos;
+        }
+
+        final String identifier = placeholder.replace("%", "").toLowerCase();
+        final Long exact = policies.get(identifier);
+
+        if (exact != null) {
+            return exact;
+        }
+
+        final int split = identifier.indexOf('_');
+        final Long expansion = split == -1 ? null : policies.get(identifier.substring(0, split));
+
+        return expansion != null ? expansion : defaultTtlNanos;
+    }
+
+    /**
+     * Drops every value resolved for the player.
+     */
+    public void invalidate(@NotNull UUID player) {
+        values.remove(player);
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (final ConcurrentHashMap<String, Value> playerValues : values.values()) {
+            size += playerValues.size();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return HITS.get();
+    }
+
+    public long getMisses() {
+        return MISSES.get();
+    }
+
+    private record Value(@NotNull String value, long resolvedNanos) {
+    }
+}
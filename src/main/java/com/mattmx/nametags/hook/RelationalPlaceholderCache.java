@@ -0,0 +1,98 @@
+package com.mattmx.nametags.hook;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import net.kyori.adventure.text.Component;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Remembers the result of {@link RelationalTemplate#apply(Player, Player)}
+ * for each (owner, viewer) pair, so metadata packets sent again for the same text
+ * don't have to resolve and format every relational placeholder again.
+ * <p>
+ * Entries are keyed by the version of the owner's text, so a new text is never
+ * served a stale result. Results still expire after the configured time since
+ * relational placeholders can change without the text changing.
+ */
+public class RelationalPlaceholderCache {
+    private volatile @Nullable Cache<Key, Component> cache = null;
+
+    /**
+     * Replaces the cache, dropping every entry.
+     *
+     * @param expireAfter How long a result is reused for, zero disables the cache.
+     * @param maximumSize The maximum amount of results to keep.
+     */
+    public void reload(@NotNull Duration expireAfter, long maximumSize) {
+        if (expireAfter.isZero() || expireAfter.isNegative() || maximumSize <= 0) {
+            this.cache = null;
+            return;
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(expireAfter)
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param owner       The player the tag belongs to.
+     * @param viewer      The player the packet is being sent to.
+     * @param textVersion The version of the owner's text.
+     * @param template    The owner's text for that version.
+     * @return The text with relational placeholders applied.
+     */
+    public @NotNull Component resolve(@NotNull Player owner, @NotNull Player viewer, long textVersion,
+            @NotNull RelationalTemplate template) {
+        final Cache<Key, Component> cache = this.cache;
+
+        if (cache == null) {
+            return template.apply(owner, viewer);
+        }
+
+        return cache.get(
+                new Key(owner.getEntityId(), viewer.getUniqueId(), textVersion),
+                (key) -> template.apply(owner, viewer));
+    }
+
+    /**
+     * Removes every result the player was either the owner or viewer of.
+     */
+    public void invalidate(@NotNull Player player) {
+        final Cache<Key, Component> cache = this.cache;
+
+        if (cache == null)
+            return;
+
+        final int entityId = player.getEntityId();
+        final UUID uuid = player.getUniqueId();
+
+        cache.asMap()
+                .keySet()
+                .removeIf((key) -> key.owner() == entityId || key.viewer().equals(uuid));
+    }
+
+    public boolean isEnabled() {
+        return this.cache != null;
+    }
+
+    public long getSize() {
+        final Cache<Key, Component> cache = this.cache;
+        return cache == null ? 0L : cache.estimatedSize();
+    }
+
+    public @NotNull CacheStats getStats() {
+        final Cache<Key, Component> cache = this.cache;
+        return cache == null ? CacheStats.empty() : cache.stats();
+    }
+
+    private record Key(int owner, @NotNull UUID viewer, long textVersion) {
+    }
+}
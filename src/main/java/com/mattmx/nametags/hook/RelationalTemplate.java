@@ -0,0 +1,163 @@
+package com.mattmx.nametags.hook;
+
+import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.config.TextFormatter;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A tag's text split once into a component skeleton and placeholder slots,
+ * so each viewer only has to resolve the slots and splice them in instead of
+ * running a text replacement over the whole text.
+ * <p>
+ * Every {@code %...%} in a text component is a slot, the same placeholder used
+ * twice shares a slot and is only resolved once. Components without any slots
+ * in them are reused as they are.
+ */
+public final class RelationalTemplate {
+    private static final @NotNull Pattern PLACEHOLDER_REGEX = Pattern.compile("%[^%]+%");
+    private static final @NotNull String @NotNull [] NO_LITERALS = new String[0];
+    private static final int @NotNull [] NO_SLOTS = new int[0];
+
+    private final @NotNull Component text;
+    private final @NotNull Node root;
+    private final @NotNull String @NotNull [] placeholders;
+
+    private RelationalTemplate(@NotNull Component text, @NotNull Node root, @NotNull String @NotNull [] placeholders) {
+        this.text = text;
+        this.root = root;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * @return The compiled text, or null if it doesn't have any placeholders in.
+     */
+    public static @Nullable RelationalTemplate compile(@NotNull Component text) {
+        final Map<String, Integer> slots = new LinkedHashMap<>();
+        final Node root = Node.compile(text, slots);
+
+        if (slots.isEmpty())
+            return null;
+
+        return new RelationalTemplate(text, root, slots.keySet().toArray(String[]::new));
+    }
+
+    /**
+     * @param one The player the tag belongs to.
+     * @param two The player viewing the tag.
+     * @return The text with every slot resolved between the two players.
+     */
+    public @NotNull Component apply(@NotNull Player one, @NotNull Player two) {
+        if (!PapiHook.isPapi()) return text;
+
+        final String[] resolved = PapiHook.setRelationalPlaceholders(one, two, placeholders);
+        final TextFormatter formatter = NameTags.getInstance().getFormatter();
+        final Component[] values = new Component[resolved.length];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = formatter.format(resolved[i]);
+        }
+
+        return root.fill(values);
+    }
+
+    public int getSlotCount() {
+        return placeholders.length;
+    }
+
+    public @NotNull Component getText() {
+        return text;
+    }
+
+    private static final class Node {
+        // The component with its content cut down to the first literal, or the original if it has no slots
+        private final @NotNull Component base;
+        private final boolean dynamic;
+        // literals.length == slots.length + 1 when there are slots, the first literal is the base's content
+        private final @NotNull String @NotNull [] literals;
+        private final int @NotNull [] slots;
+        private final @NotNull Node @NotNull [] children;
+
+        private Node(@NotNull Component base, @NotNull String[] literals, int[] slots, @NotNull Node[] children) {
+            this.base = base;
+            this.literals = literals;
+            this.slots = slots;
+            this.children = children;
+
+            boolean dynamic = slots.length > 0;
+            for (final Node child : children) {
+                dynamic |= child.dynamic;
+            }
+            this.dynamic = dynamic;
+        }
+
+        private static @NotNull Node compile(@NotNull Component component, @NotNull Map<String, Integer> slotIndices) {
+            String[] literals = NO_LITERALS;
+            int[] slots = NO_SLOTS;
+            Component base = component;
+
+            if (component instanceof TextComponent text) {
+                final String content = text.content();
+                final Matcher matcher = PLACEHOLDER_REGEX.matcher(content);
+
+                if (matcher.find()) {
+                    final List<String> literalList = new ArrayList<>();
+                    final List<Integer> slotList = new ArrayList<>();
+
+                    int last = 0;
+                    do {
+                        literalList.add(content.substring(last, matcher.start()));
+                        slotList.add(slotIndices.computeIfAbsent(matcher.group(), (placeholder) -> slotIndices.size()));
+                        last = matcher.end();
+                    } while (matcher.find());
+                    literalList.add(content.substring(last));
+
+                    literals = literalList.toArray(String[]::new);
+                    slots = slotList.stream().mapToInt(Integer::intValue).toArray();
+                    base = text.content(literals[0]);
+                }
+            }
+
+            final List<Component> originalChildren = component.children();
+            final Node[] children = new Node[originalChildren.size()];
+
+            for (int i = 0; i < children.length; i++) {
+                children[i] = compile(originalChildren.get(i), slotIndices);
+            }
+
+            return new Node(base, literals, slots, children);
+        }
+
+        private @NotNull Component fill(@NotNull Component @NotNull [] values) {
+            if (!dynamic)
+                return base;
+
+            final List<Component> filled = new ArrayList<>(slots.length * 2 + children.length);
+
+            // Resolved values become children so they inherit this component's style
+            for (int i = 0; i < slots.length; i++) {
+                filled.add(values[slots[i]]);
+
+                if (!literals[i + 1].isEmpty()) {
+                    filled.add(Component.text(literals[i + 1]));
+                }
+            }
+
+            for (final Node child : children) {
+                filled.add(child.fill(values));
+            }
+
+            return base.children(filled);
+        }
+    }
+}
@@ -44,8 +44,6 @@ public class SkinRestorerHook {
             public void run() {
                 NameTags plugin = NameTags.getInstance();
 
-                plugin.getEntityManager().removeLastSentPassengersCache(player.getEntityId());
-
                 NameTagEntity entity = plugin.getEntityManager().removeEntity(player);
 
                 if (entity != null) {
@@ -57,9 +55,8 @@ public class SkinRestorerHook {
                 newEntity.updateLocation();
 
                 if (plugin.getConfig().getBoolean("show-self", false)) {
-                    newEntity.getPassenger().removeViewer(newEntity.getBukkitEntity().getUniqueId());
-                    newEntity.getPassenger().addViewer(newEntity.getBukkitEntity().getUniqueId());
-                    newEntity.sendPassengerPacket(event.getPlayer(Player.class));
+                    newEntity.removeViewer(newEntity.getBukkitEntity().getUniqueId());
+                    newEntity.show(event.getPlayer(Player.class));
 
                     player.sendMessage(Component.text("Please re-join for update your nametag!").color(NamedTextColor.GREEN));
                 }
@@ -11,6 +11,9 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+import java.util.UUID;
+
 /**
  * Listens to PremiumVanish/SuperVanish events to properly show/hide nametags.
  */
@@ -47,16 +50,18 @@ public class VanishEventListener implements Listener {
     if (vanishedTag == null)
       return;
 
-    // Remove all viewers who can no longer see the vanished player
-    for (Player viewer : Bukkit.getOnlinePlayers()) {
-      if (viewer.equals(vanishedPlayer))
+    // Remove all viewers who can no longer see the vanished player, only current viewers can be affected
+    for (UUID viewerId : List.copyOf(vanishedTag.getPassenger().getViewers())) {
+      Player viewer = Bukkit.getPlayer(viewerId);
+
+      if (viewer == null || viewer.equals(vanishedPlayer))
         continue;
 
       // After this event completes, the viewer won't be able to see the vanished
       // player
       // So we need to remove them as a viewer of the vanished player's nametag
       if (!VanishHook.canSee(viewer, vanishedPlayer)) {
-        vanishedTag.getPassenger().removeViewer(viewer.getUniqueId());
+        vanishedTag.removeViewer(viewer.getUniqueId());
       }
     }
   }
@@ -80,19 +85,18 @@ public class VanishEventListener implements Listener {
 
     boolean showSelf = plugin.getConfig().getBoolean("show-self", false);
 
-    // Add all online players who can now see the player back as viewers
-    for (Player viewer : Bukkit.getOnlinePlayers()) {
+    shownTag.updateLocation();
+
+    // Add the players already tracking the player back as viewers, anyone
+    // that starts tracking them afterwards gets the tag from the spawn packet
+    for (Player viewer : shownTag.getTrackingPlayers()) {
       if (viewer.equals(shownPlayer) && !showSelf)
         continue;
-      if (!viewer.getWorld().equals(shownPlayer.getWorld()))
-        continue;
 
       // After this event completes, viewers will be able to see the player
       // Re-add them as viewers of the nametag
-      shownTag.updateLocation();
-      shownTag.getPassenger().removeViewer(viewer.getUniqueId());
-      shownTag.getPassenger().addViewer(viewer.getUniqueId());
-      shownTag.sendPassengerPacket(viewer);
+      shownTag.removeViewer(viewer.getUniqueId());
+      shownTag.show(viewer);
     }
   }
 }
@@ -0,0 +1,37 @@
+package com.mattmx.nametags.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A striped counter that is cheap to increment from many threads at once.
+ */
+public final class Counter {
+    private final @NotNull String name;
+    private final LongAdder count = new LongAdder();
+
+    Counter(@NotNull String name) {
+        this.name = name;
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+
+    public void reset() {
+        count.reset();
+    }
+
+    public @NotNull String getName() {
+        return name;
+    }
+}
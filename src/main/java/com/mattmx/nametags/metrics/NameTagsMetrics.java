@@ -0,0 +1,104 @@
+package com.mattmx.nametags.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Counters and timers for the plugin's hot paths, readable through
+ * {@code /nametags debug metrics} or from other plugins.
+ */
+public final class NameTagsMetrics {
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private static final Map<String, DoubleSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    public static final Timer REFRESH_BATCH = timer("refresh.batch");
+    public static final Timer PLACEHOLDERS = timer("placeholders.resolve");
+    public static final Counter PLACEHOLDERS_LIMITED = counter("placeholders.limited");
+    public static final Timer FORMATTER = timer("formatter.format");
+    public static final Counter PACKETS_CANCELLED = counter("packets.cancelled");
+    public static final Counter PACKETS_REWRITTEN = counter("packets.rewritten");
+    public static final Counter PACKETS_RESENT = counter("packets.resent");
+
+    private NameTagsMetrics() {
+    }
+
+    /**
+     * Gets or creates a counter.
+     */
+    public static @NotNull Counter counter(@NotNull String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    /**
+     * Gets or creates a timer.
+     */
+    public static @NotNull Timer timer(@NotNull String name) {
+        return timers.computeIfAbsent(name, Timer::new);
+    }
+
+    /**
+     * Registers a value that is read when the metrics are reported, replacing
+     * any gauge with the same name.
+     */
+    public static void gauge(@NotNull String name, @NotNull DoubleSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public static void removeGauge(@NotNull String name) {
+        gauges.remove(name);
+    }
+
+    public static @NotNull Map<String, Counter> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    public static @NotNull Map<String, Timer> getTimers() {
+        return Collections.unmodifiableMap(timers);
+    }
+
+    public static @NotNull Map<String, DoubleSupplier> getGauges() {
+        return Collections.unmodifiableMap(gauges);
+    }
+
+    public static void reset() {
+        counters.values().forEach(Counter::reset);
+        timers.values().forEach(Timer::reset);
+    }
+
+    /**
+     * @return One line per metric, sorted by name within counters, timers and gauges.
+     */
+    public static @NotNull List<String> report() {
+        final List<String> lines = new ArrayList<>(counters.size() + timers.size() + gauges.size());
+
+        for (final Counter counter : counters.values()) {
+            lines.add(counter.getName() + ": " + counter.get());
+        }
+
+        for (final Timer timer : timers.values()) {
+            lines.add(timer.getName() + ": " + timer.summary());
+        }
+
+        for (final Map.Entry<String, DoubleSupplier> gauge : gauges.entrySet()) {
+            double value;
+            try {
+                value = gauge.getValue().getAsDouble();
+            } catch (RuntimeException error) {
+                value = Double.NaN;
+            }
+
+            lines.add(gauge.getKey() + ": " + (value == Math.rint(value)
+                ? String.valueOf((long) value)
+                : String.format("%.3f", value)));
+        }
+
+        return lines;
+    }
+}
@@ -0,0 +1,125 @@
+package com.mattmx.nametags.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations into a histogram of power of two buckets.
+ * <p>
+ * Every bucket is a striped counter, so recording never blocks and costs
+ * about the same as incrementing a {@link Counter}. Percentiles are
+ * approximate and reported as the upper bound of the bucket they fall in.
+ */
+public final class Timer {
+    private static final int BUCKETS = 64;
+
+    private final @NotNull String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0L);
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    Timer(@NotNull String name) {
+        this.name = name;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return The start time to pass to {@link #stop(long)}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void stop(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0L) {
+            nanos = 0L;
+        }
+
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        buckets[BUCKETS - Long.numberOfLeadingZeros(nanos | 1L) - 1].increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMeanNanos() {
+        final long count = getCount();
+        return count == 0 ? 0L : getTotalNanos() / count;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @param quantile Between 0 and 1, e.g. 0.99 for the 99th percentile.
+     * @return The approximate duration at the given quantile.
+     */
+    public long getPercentileNanos(double quantile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+
+        if (total == 0L) {
+            return 0L;
+        }
+
+        final long target = (long) Math.ceil(total * quantile);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(getMaxNanos(), i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1);
+            }
+        }
+
+        return getMaxNanos();
+    }
+
+    public void reset() {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+        for (final LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+    }
+
+    public @NotNull String getName() {
+        return name;
+    }
+
+    /**
+     * @return A short summary in microseconds, e.g. {@code 120 calls, avg 15µs, p99 31µs, max 40µs}.
+     */
+    public @NotNull String summary() {
+        return getCount() + " calls, avg " + micros(getMeanNanos())
+            + ", p50 " + micros(getPercentileNanos(0.5))
+            + ", p99 " + micros(getPercentileNanos(0.99))
+            + ", max " + micros(getMaxNanos());
+    }
+
+    private static @NotNull String micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos) + "µs";
+    }
+}
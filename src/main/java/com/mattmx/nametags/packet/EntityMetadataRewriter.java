@@ -0,0 +1,68 @@
+package com.mattmx.nametags.packet;
+
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.util.Vector3f;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * The part of {@link PlayServerEntityMetaDataHandler} that walks the entries
+ * of a tag's metadata packet, kept separate so it can be benchmarked without
+ * a running server.
+ */
+public class EntityMetadataRewriter {
+    public static final byte TEXT_DISPLAY_TEXT_INDEX = 23;
+    public static final byte PRE_1_20_2_TRANSLATION_INDEX = 10;
+    public static final byte POST_1_20_2_TRANSLATION_INDEX = 11;
+
+    public static final Vector3f PRE_1_20_2_TRANSLATION_OFFSET = new Vector3f(0f, 0.4f, 0f);
+
+    /**
+     * Applies the translation offset for clients older than 1.20.2 and finds the
+     * text entry.
+     * <p>
+     * Mojank changed the passenger origin point when riding an entity so the tag
+     * appears inside their head.
+     *
+     * @param entries           The entries of the packet, which may be modified.
+     * @param isOldClient       Whether the receiver is older than 1.20.2.
+     * @param entityOffsetIndex The translation index for the server's version.
+     * @return The text entry, or null if the packet doesn't change the text.
+     */
+    @SuppressWarnings("unchecked")
+    public static @Nullable EntityData<?> rewrite(@NotNull List<EntityData<?>> entries, boolean isOldClient,
+        byte entityOffsetIndex) {
+        boolean containsEntityOffset = false;
+        @Nullable EntityData<?> textEntry = null;
+
+        for (final EntityData<?> entry : entries) {
+            if (containsEntityOffset && textEntry != null) {
+                break;
+            }
+
+            if (isOldClient && entry.getIndex() == entityOffsetIndex) {
+                EntityData<Vector3f> offset = (EntityData<Vector3f>) entry;
+                // If there is already an entity offset, and it's an old client, add to it.
+                offset.setValue(offset.getValue().add(PRE_1_20_2_TRANSLATION_OFFSET));
+
+                containsEntityOffset = true;
+            } else if (entry.getIndex() == TEXT_DISPLAY_TEXT_INDEX) {
+                textEntry = entry;
+            }
+        }
+
+        if (isOldClient && !containsEntityOffset) {
+            // If there was no offset found then add one ourselves for the offset.
+            entries.add(new EntityData<>(
+                entityOffsetIndex,
+                EntityDataTypes.VECTOR3F,
+                PRE_1_20_2_TRANSLATION_OFFSET
+            ));
+        }
+
+        return textEntry;
+    }
+}
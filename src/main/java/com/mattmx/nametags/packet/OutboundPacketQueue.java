@@ -0,0 +1,233 @@
+package com.mattmx.nametags.packet;
+
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerBundle;
+import com.mattmx.nametags.metrics.Counter;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collects the packets the plugin sends to each viewer during a tick and
+ * writes them all at once at the end of the tick.
+ * <p>
+ * On clients that support it the packets are wrapped in a bundle, so e.g. a
+ * tag's spawn, metadata and passengers are applied in the same frame.
+ * <p>
+ * Queued packets are built when they are flushed, so they carry the entity's
+ * state at the end of the tick. Anything else sent to a viewer for an entity
+ * with packets still queued should go through {@link #send(User, int, PacketWrapper)}
+ * so it can't arrive before them.
+ */
+public class OutboundPacketQueue {
+    // The client disconnects if a bundle has more packets than this
+    private static final int MAX_BUNDLE_SIZE = 4096;
+
+    private static final Counter FLUSHES = NameTagsMetrics.counter("outbound.flushes");
+    private static final Counter PACKETS = NameTagsMetrics.counter("outbound.packets");
+    private static final Counter BUNDLES = NameTagsMetrics.counter("outbound.bundles");
+
+    private final @NotNull ConcurrentHashMap<UUID, ViewerQueue> queues = new ConcurrentHashMap<>();
+    private @Nullable BukkitTask flushTask = null;
+
+    public void start(@NotNull JavaPlugin plugin) {
+        stop();
+        flushTask = Bukkit.getScheduler().runTaskTimer(plugin, this::flush, 1L, 1L);
+    }
+
+    /**
+     * Stops the flush task, anything still queued is sent straight away.
+     */
+    public void stop() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+
+        flush();
+    }
+
+    /**
+     * Queues a packet to be built and sent to the user at the end of the tick.
+     * Packets to the same user are sent in the order they were queued.
+     *
+     * @param entityId The entity the packet is for, see {@link #purge(UUID, int)}.
+     */
+    public void queue(@NotNull User user, int entityId, @NotNull Supplier<PacketWrapper<?>> packet) {
+        queues.computeIfAbsent(user.getUUID(), (uuid) -> new ViewerQueue(user))
+                .add(new Entry(entityId, packet));
+    }
+
+    /**
+     * Sends the packet straight away, unless packets for the same entity are
+     * still queued for the user, in which case it's queued behind them.
+     */
+    public void send(@NotNull User user, int entityId, @NotNull PacketWrapper<?> packet) {
+        final ViewerQueue queue = queues.get(user.getUUID());
+
+        if (queue == null) {
+            user.sendPacket(packet);
+            return;
+        }
+
+        queue.send(entityId, packet);
+    }
+
+    /**
+     * Drops the packets queued for the entity, e.g. when the viewer is removed
+     * before they were flushed, so a spawn can't arrive after the destroy.
+     */
+    public void purge(@NotNull UUID viewer, int entityId) {
+        final ViewerQueue queue = queues.get(viewer);
+
+        if (queue != null) {
+            queue.purge(entityId);
+        }
+    }
+
+    public void flush() {
+        for (final ViewerQueue queue : queues.values()) {
+            queue.flush();
+        }
+    }
+
+    public void remove(@NotNull UUID viewer) {
+        queues.remove(viewer);
+    }
+
+    public @Nullable ViewerQueue getQueue(@NotNull UUID viewer) {
+        return queues.get(viewer);
+    }
+
+    public @NotNull Map<UUID, ViewerQueue> getQueues() {
+        return Collections.unmodifiableMap(queues);
+    }
+
+    public int getPendingCount() {
+        int pending = 0;
+        for (final ViewerQueue queue : queues.values()) {
+            pending += queue.getPendingCount();
+        }
+        return pending;
+    }
+
+    private static boolean supportsBundles(@NotNull User user) {
+        final ClientVersion version = user.getClientVersion();
+        return version != null && version.isNewerThanOrEquals(ClientVersion.V_1_19_4);
+    }
+
+    private record Entry(int entityId, @NotNull Supplier<PacketWrapper<?>> packet) {
+    }
+
+    public static class ViewerQueue {
+        private final @NotNull User user;
+        // Guarded by this, flushing holds the lock while writing so nothing can overtake a batch
+        private final @NotNull ArrayDeque<Entry> pending = new ArrayDeque<>();
+        private final @NotNull LongAdder flushes = new LongAdder();
+        private final @NotNull LongAdder packets = new LongAdder();
+        private final @NotNull LongAdder bundles = new LongAdder();
+        private volatile int maxBatchSize = 0;
+
+        private ViewerQueue(@NotNull User user) {
+            this.user = user;
+        }
+
+        private synchronized void add(@NotNull Entry entry) {
+            pending.add(entry);
+        }
+
+        private synchronized void send(int entityId, @NotNull PacketWrapper<?> packet) {
+            for (final Entry entry : pending) {
+                if (entry.entityId() == entityId) {
+                    pending.add(new Entry(entityId, () -> packet));
+                    return;
+                }
+            }
+
+            user.sendPacket(packet);
+        }
+
+        private synchronized void purge(int entityId) {
+            pending.removeIf((entry) -> entry.entityId() == entityId);
+        }
+
+        private synchronized void flush() {
+            if (pending.isEmpty())
+                return;
+
+            final List<PacketWrapper<?>> batch = new ArrayList<>(pending.size());
+            Entry next;
+            while ((next = pending.poll()) != null) {
+                batch.add(next.packet().get());
+            }
+
+            // A bundle of one packet is just two extra packets
+            final boolean bundle = batch.size() > 1 && supportsBundles(user);
+
+            for (int start = 0; start < batch.size(); start += MAX_BUNDLE_SIZE) {
+                final int end = Math.min(batch.size(), start + MAX_BUNDLE_SIZE);
+
+                if (bundle) {
+                    user.writePacket(new WrapperPlayServerBundle());
+                }
+
+                for (int i = start; i < end; i++) {
+                    user.writePacket(batch.get(i));
+                }
+
+                if (bundle) {
+                    user.writePacket(new WrapperPlayServerBundle());
+                    bundles.increment();
+                    BUNDLES.increment();
+                }
+            }
+
+            // Only one flush to the socket for the whole batch
+            user.flushPackets();
+
+            flushes.increment();
+            packets.add(batch.size());
+            FLUSHES.increment();
+            PACKETS.add(batch.size());
+
+            if (batch.size() > maxBatchSize) {
+                maxBatchSize = batch.size();
+            }
+        }
+
+        public synchronized int getPendingCount() {
+            return pending.size();
+        }
+
+        public long getFlushCount() {
+            return flushes.sum();
+        }
+
+        public long getPacketCount() {
+            return packets.sum();
+        }
+
+        public long getBundleCount() {
+            return bundles.sum();
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+    }
+}
@@ -5,20 +5,21 @@ import com.github.retrooper.packetevents.event.PacketSendEvent;
 import com.github.retrooper.packetevents.manager.server.ServerVersion;
 import com.github.retrooper.packetevents.manager.server.VersionComparison;
 import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
-import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
 import com.github.retrooper.packetevents.protocol.player.ClientVersion;
-import com.github.retrooper.packetevents.util.Vector3f;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
 import com.mattmx.nametags.NameTags;
 import com.mattmx.nametags.entity.NameTagEntity;
 import com.mattmx.nametags.hook.PapiHook;
-import com.mattmx.nametags.utils.ComponentUtils;
+import com.mattmx.nametags.hook.RelationalTemplate;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.TextComponent;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.UUID;
+
 /**
  * Responsible for two things:
  * <p>
@@ -31,22 +32,15 @@ import org.jetbrains.annotations.Nullable;
  * modern versions.
  * <p>
  * 2. Apply relational placeholders (off the netty thread) if there are
- * any.
+ * any. Packets for tags without them are left on the netty thread.
  */
 public class PlayServerEntityMetaDataHandler {
-    private static final byte TEXT_DISPLAY_TEXT_INDEX = 23;
-    private static final byte PRE_1_20_2_TRANSLATION_INDEX = 10;
-    private static final byte POST_1_20_2_TRANSLATION_INDEX = 11;
-
-    private static final Vector3f PRE_1_20_2_TRANSLATION_OFFSET = new Vector3f(0f, 0.4f, 0f);
     private static final byte ENTITY_OFFSET_INDEX = PacketEvents.getAPI()
         .getServerManager()
         .getVersion()
         .is(VersionComparison.OLDER_THAN, ServerVersion.V_1_20_2)
-        ? PRE_1_20_2_TRANSLATION_INDEX
-        : POST_1_20_2_TRANSLATION_INDEX;
-
-    private static final TextComponent RELATIVE_ARG_PREFIX = Component.text("%rel_");
+        ? EntityMetadataRewriter.PRE_1_20_2_TRANSLATION_INDEX
+        : EntityMetadataRewriter.POST_1_20_2_TRANSLATION_INDEX;
 
     public static void handlePacket(@NotNull PacketSendEvent event) {
         final NameTags plugin = NameTags.getInstance();
@@ -61,69 +55,89 @@ public class PlayServerEntityMetaDataHandler {
             return;
         }
 
+        // Only packets whose text has to be resolved per viewer need to leave the netty thread
+        if (!needsRelationalText(plugin, nameTagEntity, event.getUser().getUUID(), packet0)) {
+            eventClone.cleanUp();
+
+            if (event.getUser().getClientVersion().isOlderThan(ClientVersion.V_1_20_2)) {
+                EntityMetadataRewriter.rewrite(packet0.getEntityMetadata(), true, ENTITY_OFFSET_INDEX);
+                event.markForReEncode(true);
+                NameTagsMetrics.PACKETS_REWRITTEN.increment();
+            }
+            return;
+        }
+
         event.setCancelled(true);
+        NameTagsMetrics.PACKETS_CANCELLED.increment();
         final WrapperPlayServerEntityMetadata packet = new WrapperPlayServerEntityMetadata(eventClone);
 
-        // This could prove a concurrency issue, maybe we should keep track of if there is a newer packet processing?
-        plugin.getExecutor().execute(() -> {
+        // Packets for the same viewer are re-sent in the order they were cancelled in
+        plugin.getViewerExecutor().execute(eventClone.getUser().getUUID(), () -> {
             boolean isOldClient = eventClone.getUser()
                 .getClientVersion()
                 .isOlderThan(ClientVersion.V_1_20_2);
 
-            boolean containsEntityOffset = false;
-            @Nullable EntityData textEntry = null;
-
-            for (final EntityData entry : packet.getEntityMetadata()) {
-                if (containsEntityOffset && textEntry != null) {
-                    break;
-                }
-
-                if (isOldClient && entry.getIndex() == ENTITY_OFFSET_INDEX) {
-                    Vector3f vec = (Vector3f) entry.getValue();
-                    // If there is already an entity offset, and it's an old client, add to it.
-                    entry.setValue(vec.add(PRE_1_20_2_TRANSLATION_OFFSET));
+            final @Nullable EntityData textEntry = EntityMetadataRewriter.rewrite(
+                packet.getEntityMetadata(),
+                isOldClient,
+                ENTITY_OFFSET_INDEX
+            );
 
-                    containsEntityOffset = true;
-                } else if (entry.getIndex() == TEXT_DISPLAY_TEXT_INDEX) {
-                    textEntry = entry;
-                }
+            if (isOldClient) {
+                NameTagsMetrics.PACKETS_REWRITTEN.increment();
             }
 
-            // Backwards compatibility for clients older than 1.20.2
-            // Mojank changed the passenger origin point when riding an entity so the tag appears inside their head.
-            if (isOldClient && !containsEntityOffset) {
-                // If there was no offset found then add one ourselves for the offset.
-                packet.getEntityMetadata().add(new EntityData(
-                    ENTITY_OFFSET_INDEX,
-                    EntityDataTypes.VECTOR3F,
-                    PRE_1_20_2_TRANSLATION_OFFSET
-                ));
+            if (!(nameTagEntity.getBukkitEntity() instanceof Player from) || textEntry == null) {
+                resend(eventClone, packet);
+                return;
             }
 
-            // Apply relational placeholders to the text of an outgoing display entity
-            if (plugin.getConfig().getBoolean("options.relative-placeholders-support") &&
-                nameTagEntity.getBukkitEntity() instanceof Player from &&
-                textEntry != null
-            ) {
-                final TextComponent originalText = (TextComponent) textEntry.getValue();
-                final Player to = eventClone.getPlayer();
+            final TextComponent originalText = (TextComponent) textEntry.getValue();
+            final Player to = eventClone.getPlayer();
 
-                boolean containsRelativePlaceholder = ComponentUtils.contains(originalText, RELATIVE_ARG_PREFIX);
+            // Resolve from the tag's current text so the result can be reused until it changes
+            final NameTagEntity.TextSnapshot snapshot = nameTagEntity.getTextSnapshot();
+            final RelationalTemplate template = snapshot.relationalTemplate();
+            final Component textWithRelativeApplied = template == null
+                ? PapiHook.setRelationalPlaceholders(from, to, originalText)
+                : plugin.getRelationalPlaceholderCache().resolve(from, to, snapshot.version(), template);
 
-                // If it doesn't have any placeholders in then stop
-                if (!containsRelativePlaceholder) {
-                    eventClone.getUser().sendPacketSilently(packet);
-                    return;
-                }
+            textEntry.setValue(textWithRelativeApplied);
+            NameTagsMetrics.PACKETS_REWRITTEN.increment();
+            resend(eventClone, packet);
+        });
+    }
 
-                final Component textWithRelativeApplied = PapiHook.setRelationalPlaceholders(from, to, originalText);
+    /**
+     * Uses the flag worked out when the tag's text last changed instead of
+     * searching the packet's text for relational placeholders.
+     */
+    private static boolean needsRelationalText(@NotNull NameTags plugin, @NotNull NameTagEntity nameTagEntity,
+                                               @NotNull UUID viewer, @NotNull WrapperPlayServerEntityMetadata packet) {
+        if (!plugin.getConfig().getBoolean("options.relative-placeholders-support") ||
+            !(nameTagEntity.getBukkitEntity() instanceof Player) ||
+            !nameTagEntity.hasRelationalPlaceholders()
+        ) {
+            return false;
+        }
+
+        // Level of detail texts are sent as they are
+        if (nameTagEntity.getLevelOfDetail().isShowingTierText(viewer)) {
+            return false;
+        }
 
-                textEntry.setValue(textWithRelativeApplied);
-                eventClone.getUser().sendPacketSilently(packet);
-            } else {
-                eventClone.getUser().sendPacketSilently(packet);
+        for (final EntityData<?> entry : packet.getEntityMetadata()) {
+            if (entry.getIndex() == EntityMetadataRewriter.TEXT_DISPLAY_TEXT_INDEX) {
+                return true;
             }
-        });
+        }
+
+        return false;
+    }
+
+    private static void resend(@NotNull PacketSendEvent event, @NotNull WrapperPlayServerEntityMetadata packet) {
+        event.getUser().sendPacketSilently(packet);
+        NameTagsMetrics.PACKETS_RESENT.increment();
     }
 
 }
@@ -4,10 +4,9 @@ import com.github.retrooper.packetevents.event.PacketSendEvent;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSetPassengers;
 import com.mattmx.nametags.NameTags;
 import com.mattmx.nametags.entity.NameTagEntity;
+import com.mattmx.nametags.metrics.NameTagsMetrics;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Arrays;
-
 public class PlayServerSetPassengersHandler {
 
     public static void handlePacket(@NotNull PacketSendEvent event) {
@@ -18,29 +17,21 @@ public class PlayServerSetPassengersHandler {
 
         if (nameTagEntity == null) return;
 
-        // If the packet doesn't already contain our entity
-        boolean containsNameTagPassenger = false;
-        for (final int passengerId : packet.getPassengers()) {
-            if (passengerId == nameTagEntity.getPassenger().getEntityId()) {
-                containsNameTagPassenger = true;
+        final int tagEntityId = nameTagEntity.getPassenger().getEntityId();
+        final int[] current = packet.getPassengers();
+
+        // If the packet already contains our entity there's nothing to do
+        for (final int passengerId : current) {
+            if (passengerId == tagEntityId) {
+                return;
             }
         }
 
         // TODO(Matt)?: Should we process async and then send another passenger packet afterwards?
-        if (!containsNameTagPassenger) {
-
-            // Add our entity
-            int[] passengers = Arrays.copyOf(packet.getPassengers(), packet.getPassengers().length + 1);
-            passengers[passengers.length - 1] = nameTagEntity.getPassenger().getEntityId();
+        packet.setPassengers(nameTagEntity.getPassengerIdsWith(current));
 
-            packet.setPassengers(passengers);
-
-            NameTags.getInstance()
-                .getEntityManager()
-                .setLastSentPassengers(packet.getEntityId(), passengers);
-
-            event.markForReEncode(true);
-        }
+        event.markForReEncode(true);
+        NameTagsMetrics.PACKETS_REWRITTEN.increment();
     }
 
 }
@@ -7,13 +7,13 @@ import com.github.retrooper.packetevents.protocol.player.User;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSpawnEntity;
 import com.mattmx.nametags.NameTags;
 import com.mattmx.nametags.entity.NameTagEntity;
+import com.mattmx.nametags.entity.NameTagEntityManager;
 import com.mattmx.nametags.hook.VanishHook;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Responsible for appending the name tag spawn packet and
@@ -36,17 +36,16 @@ public class PlayServerSpawnEntityHandler {
         final User user = event.getUser();
         if (nameTagEntity == null) {
 
-            // If it's a player, and they don't have a name tag yet, retry after a delay.
+            // If it's a player, and they don't have a name tag yet, attach it once it's created
             if (packet.getEntityType() == EntityTypes.PLAYER) {
-                Bukkit.getAsyncScheduler().runDelayed(plugin, (task) -> {
-                    final NameTagEntity nameTagEntity0 = plugin.getEntityManager().getNameTagEntityByUUID(packetUUID);
-
-                    if (nameTagEntity0 == null) {
-                        return;
-                    }
-
-                    attachPassengerToEntity(nameTagEntity0, user);
-                }, 1L, TimeUnit.SECONDS);
+                final NameTagEntityManager manager = plugin.getEntityManager();
+                manager.getPendingAttachments().add(packetUUID, packet.getEntityId(), user);
+
+                // The tag may have been created since the lookup above, in which case nothing else would attach it
+                final NameTagEntity created = manager.getNameTagEntityByUUID(packetUUID);
+                if (created != null) {
+                    manager.attachPending(created);
+                }
             }
 
             return;
@@ -54,10 +53,14 @@ public class PlayServerSpawnEntityHandler {
 
         // Add passenger and send to player after (off the netty thread)
         event.getTasksAfterSend()
-                .add(() -> plugin.getExecutor().execute(() -> attachPassengerToEntity(nameTagEntity, user)));
+                .add(() -> plugin.getViewerExecutor()
+                        .execute(user.getUUID(), () -> attachPassengerToEntity(nameTagEntity, user)));
     }
 
-    private static void attachPassengerToEntity(final NameTagEntity nameTagEntity, final User receiver) {
+    /**
+     * Shows the tag to the receiver, unless it is disabled, vanished or invisible.
+     */
+    public static void attachPassengerToEntity(final NameTagEntity nameTagEntity, final User receiver) {
         final NameTags plugin = NameTags.getInstance();
 
         // Check if the nametag is disabled by an admin
@@ -84,10 +87,8 @@ public class PlayServerSpawnEntityHandler {
         nameTagEntity.updateLocation();
 
         // Refreshes as viewer (crusty fix)
-        nameTagEntity.getPassenger().removeViewer(receiver);
-        nameTagEntity.getPassenger().addViewer(receiver);
-
-        receiver.sendPacket(nameTagEntity.getPassengersPacket());
+        nameTagEntity.removeViewer(receiver);
+        nameTagEntity.show(receiver);
     }
 
 }
@@ -0,0 +1,250 @@
+package com.mattmx.nametags.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * A concurrent map from {@code int} keys to objects that never boxes the key.
+ * <p>
+ * Used for entity id lookups on the netty threads, where almost every packet
+ * sent to every player does a lookup that misses. Reads are lock-free and
+ * allocate nothing, writes are synchronized since they only happen when an
+ * entity is added or removed.
+ * <p>
+ * Entries live in an open addressing table with linear probing. Removed slots
+ * are marked with a tombstone and cleaned up the next time the table is rebuilt.
+ *
+ * @param <V> The type of value.
+ */
+public class ConcurrentIntObjectMap<V> {
+    private static final int MIN_CAPACITY = 16;
+    private static final Entry<?> TOMBSTONE = new Entry<>(0, null);
+
+    private volatile @NotNull AtomicReferenceArray<Entry<V>> table;
+    private volatile int size = 0;
+    // Tombstones count towards the load, otherwise a miss could probe forever
+    private int tombstones = 0;
+
+    public ConcurrentIntObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public ConcurrentIntObjectMap(int expectedSize) {
+        this.table = new AtomicReferenceArray<>(capacityFor(expectedSize));
+    }
+
+    public @Nullable V get(int key) {
+        final AtomicReferenceArray<Entry<V>> table = this.table;
+        final int mask = table.length() - 1;
+
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            final Entry<V> entry = table.get(i);
+
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry != TOMBSTONE && entry.key == key) {
+                return entry.value;
+            }
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return The previous value, or null if there was none.
+     */
+    public synchronized @Nullable V put(int key, @NotNull V value) {
+        return insert(key, value, false);
+    }
+
+    /**
+     * @return The existing value, or null if the given value was added.
+     */
+    public synchronized @Nullable V putIfAbsent(int key, @NotNull V value) {
+        return insert(key, value, true);
+    }
+
+    /**
+     * @return The existing value, or the newly computed value if there was none.
+     */
+    public @NotNull V computeIfAbsent(int key, @NotNull IntFunction<V> provider) {
+        final V existing = get(key);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        synchronized (this) {
+            final V current = get(key);
+
+            if (current != null) {
+                return current;
+            }
+
+            final V created = provider.apply(key);
+            insert(key, created, false);
+
+            return created;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized @Nullable V remove(int key) {
+        final AtomicReferenceArray<Entry<V>> table = this.table;
+        final int mask = table.length() - 1;
+
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            final Entry<V> entry = table.get(i);
+
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry != TOMBSTONE && entry.key == key) {
+                table.set(i, (Entry<V>) TOMBSTONE);
+                size--;
+                tombstones++;
+                return entry.value;
+            }
+        }
+    }
+
+    /**
+     * Removes the key only if it is currently mapped to the given value.
+     */
+    public synchronized boolean remove(int key, @NotNull V value) {
+        if (get(key) != value) {
+            return false;
+        }
+
+        remove(key);
+        return true;
+    }
+
+    public synchronized void clear() {
+        this.table = new AtomicReferenceArray<>(MIN_CAPACITY);
+        this.size = 0;
+        this.tombstones = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return A snapshot of the values at the time of calling.
+     */
+    public @NotNull Collection<V> values() {
+        final AtomicReferenceArray<Entry<V>> table = this.table;
+        final ArrayList<V> values = new ArrayList<>(size);
+
+        for (int i = 0; i < table.length(); i++) {
+            final Entry<V> entry = table.get(i);
+
+            if (entry != null && entry != TOMBSTONE) {
+                values.add(entry.value);
+            }
+        }
+
+        return values;
+    }
+
+    private @Nullable V insert(int key, @NotNull V value, boolean onlyIfAbsent) {
+        AtomicReferenceArray<Entry<V>> table = this.table;
+
+        if ((size + tombstones + 1) * 2 > table.length()) {
+            table = rebuild(capacityFor(size + 1));
+        }
+
+        final int mask = table.length() - 1;
+        int free = -1;
+
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            final Entry<V> entry = table.get(i);
+
+            if (entry == null) {
+                if (free == -1) {
+                    free = i;
+                }
+                break;
+            }
+
+            if (entry == TOMBSTONE) {
+                if (free == -1) {
+                    free = i;
+                }
+                continue;
+            }
+
+            if (entry.key == key) {
+                if (!onlyIfAbsent) {
+                    table.set(i, new Entry<>(key, value));
+                }
+                return entry.value;
+            }
+        }
+
+        if (table.get(free) == TOMBSTONE) {
+            tombstones--;
+        }
+
+        table.set(free, new Entry<>(key, value));
+        size++;
+
+        return null;
+    }
+
+    private @NotNull AtomicReferenceArray<Entry<V>> rebuild(int capacity) {
+        final AtomicReferenceArray<Entry<V>> previous = this.table;
+        final AtomicReferenceArray<Entry<V>> rebuilt = new AtomicReferenceArray<>(capacity);
+        final int mask = capacity - 1;
+
+        for (int i = 0; i < previous.length(); i++) {
+            final Entry<V> entry = previous.get(i);
+
+            if (entry == null || entry == TOMBSTONE) {
+                continue;
+            }
+
+            int slot = index(entry.key, mask);
+            while (rebuilt.get(slot) != null) {
+                slot = (slot + 1) & mask;
+            }
+            rebuilt.set(slot, entry);
+        }
+
+        // Readers still using the previous table see a consistent snapshot since it is never written to again
+        this.table = rebuilt;
+        this.tombstones = 0;
+
+        return rebuilt;
+    }
+
+    private static int capacityFor(int size) {
+        // Keep the table at most half full
+        final int target = Math.max(MIN_CAPACITY, size * 2);
+        return Integer.highestOneBit(target - 1) << 1;
+    }
+
+    private static int index(int key, int mask) {
+        // Entity ids are sequential, so spread them to avoid long probe chains
+        final int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private record Entry<V>(int key, V value) {
+    }
+}
@@ -0,0 +1,162 @@
+package com.mattmx.nametags.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks on a shared executor, while making sure tasks submitted with the
+ * same key run one at a time in the order they were submitted.
+ * <p>
+ * Each key gets a lane, which is only ever queued on the delegate once. Lanes
+ * with different keys run in parallel across all of the delegate's threads.
+ *
+ * @param <K> The type of key, e.g. a player's UUID.
+ */
+public class KeyedSerialExecutor<K> {
+    // Stop draining a busy lane after this many tasks so other lanes get a turn
+    private static final int MAX_TASKS_PER_RUN = 64;
+
+    private final @NotNull Executor delegate;
+    private final @NotNull Logger logger;
+    private final @NotNull ConcurrentHashMap<K, Lane> lanes = new ConcurrentHashMap<>();
+
+    public KeyedSerialExecutor(@NotNull Executor delegate, @NotNull Logger logger) {
+        this.delegate = delegate;
+        this.logger = logger;
+    }
+
+    /**
+     * Queues the task on the lane for the given key.
+     *
+     * @param key  The lane to run the task on, or null to run it without any ordering.
+     * @param task The task to run.
+     */
+    public void execute(@Nullable K key, @NotNull Runnable task) {
+        if (key == null) {
+            delegate.execute(task);
+            return;
+        }
+
+        lanes.computeIfAbsent(key, (k) -> new Lane())
+                .submit(task);
+    }
+
+    /**
+     * Removes the lane for the given key. Tasks that were already queued still run.
+     */
+    public void remove(@NotNull K key) {
+        lanes.remove(key);
+    }
+
+    public @Nullable Lane getLane(@NotNull K key) {
+        return lanes.get(key);
+    }
+
+    public @NotNull Map<K, Lane> getLanes() {
+        return Collections.unmodifiableMap(lanes);
+    }
+
+    public int getQueuedCount() {
+        int queued = 0;
+        for (final Lane lane : lanes.values()) {
+            queued += lane.getQueueDepth();
+        }
+        return queued;
+    }
+
+    public class Lane {
+        private final @NotNull Queue<QueuedTask> queue = new ConcurrentLinkedQueue<>();
+        private final @NotNull AtomicInteger pending = new AtomicInteger();
+        private final @NotNull LongAdder executed = new LongAdder();
+        private final @NotNull LongAdder totalWaitNanos = new LongAdder();
+        private volatile int maxQueueDepth = 0;
+        private volatile long maxWaitNanos = 0L;
+
+        private void submit(@NotNull Runnable task) {
+            queue.add(new QueuedTask(task, System.nanoTime()));
+
+            final int depth = pending.incrementAndGet();
+            if (depth > maxQueueDepth) {
+                maxQueueDepth = depth;
+            }
+
+            // Only the submitter that took the lane from idle queues it
+            if (depth == 1) {
+                delegate.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+                final QueuedTask next = queue.poll();
+
+                if (next != null) {
+                    run(next);
+                }
+
+                if (pending.decrementAndGet() == 0) {
+                    return;
+                }
+            }
+
+            delegate.execute(this::drain);
+        }
+
+        private void run(@NotNull QueuedTask next) {
+            final long waited = System.nanoTime() - next.queuedAt();
+            totalWaitNanos.add(waited);
+            if (waited > maxWaitNanos) {
+                maxWaitNanos = waited;
+            }
+
+            try {
+                next.task().run();
+            } catch (Throwable error) {
+                logger.log(Level.WARNING, "Exception whilst running a queued task", error);
+            } finally {
+                executed.increment();
+            }
+        }
+
+        /**
+         * @return How many tasks are waiting or running on this lane.
+         */
+        public int getQueueDepth() {
+            return pending.get();
+        }
+
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        public long getExecutedCount() {
+            return executed.sum();
+        }
+
+        /**
+         * @return The average time tasks waited in the queue before running.
+         */
+        public long getAverageWaitNanos() {
+            final long executed = this.executed.sum();
+            return executed == 0 ? 0L : totalWaitNanos.sum() / executed;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+    }
+
+    private record QueuedTask(@NotNull Runnable task, long queuedAt) {
+    }
+}
@@ -0,0 +1,124 @@
+package com.mattmx.nametags.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks {@link LegacyTranscoder} produces the same output as the chain of
+ * regex passes and replaces {@link TextFormatter#SMART} used before it.
+ */
+class LegacyTranscoderTest {
+    private static final long SEED = 0x5EEDL;
+    private static final int RANDOM_LINES = 100_000;
+    private static final String RANDOM_ALPHABET = "&&&§§x#0123456789abcdefABCDEFklmnorKLMNOR <>$\\";
+
+    private static final Pattern LEGACY_HEX_PATTERN = Pattern.compile("&x(&[0-9a-fA-F]){6}");
+    private static final Pattern HEX_PATTERN = Pattern.compile("&#([0-9a-fA-F]{6})");
+
+    private static final String[] EDGE_CASES = {
+        "",
+        "&",
+        "§",
+        "&&a",
+        "&A&L&r",
+        "§x§f§f§0§0§0§0name",
+        "&x&f&f&0&0&0",
+        "&x&x&1&2&3&4&5&6",
+        "&#12&x&a&b&c&d&e&f",
+        "&&x&1&2&3&4&5&6",
+        "&#1234567",
+        "&#12345g",
+        "&#ABCdef&lbold",
+        "<red>already minimessage</red> &7and legacy",
+        "$1 \\ & $ replacement characters",
+        "&6[&eAdmin&6] &f%player_name%",
+        "&x&f&f&a&a&0&0Owner &7| &#55ff55Online",
+    };
+
+    @Test
+    void matchesReferenceForEdgeCases() {
+        for (final String line : EDGE_CASES) {
+            assertTranscodes(line);
+        }
+    }
+
+    @Test
+    void matchesReferenceForRandomLines() {
+        final Random random = new Random(SEED);
+
+        for (int i = 0; i < RANDOM_LINES; i++) {
+            final StringBuilder line = new StringBuilder();
+            final int length = random.nextInt(32);
+
+            for (int c = 0; c < length; c++) {
+                line.append(RANDOM_ALPHABET.charAt(random.nextInt(RANDOM_ALPHABET.length())));
+            }
+
+            assertTranscodes(line.toString());
+        }
+    }
+
+    @Test
+    void returnsSameInstanceWithoutCodes() {
+        final String line = "<red>no legacy codes here</red>";
+
+        assertSame(line, LegacyTranscoder.toMiniMessage(line));
+    }
+
+    private static void assertTranscodes(String line) {
+        assertEquals(reference(line), LegacyTranscoder.toMiniMessage(line), () -> "Transcoder differs for \"" + line + "\"");
+    }
+
+    /**
+     * What {@link TextFormatter#SMART} did before handing the line to MiniMessage,
+     * kept here so the test doesn't need the server on the classpath.
+     */
+    private static String reference(String line) {
+        String mutableLine = replaceAll(LEGACY_HEX_PATTERN, line.replace((char) 167, '&'), (matcher) -> "&#" + matcher.group().replace("&x", "").replace("&", ""));
+
+        mutableLine = replaceAll(HEX_PATTERN, mutableLine, (matcher) -> "<#" + matcher.group(1) + ">");
+        return mutableLine
+            .replace("&0", "<black>")
+            .replace("&1", "<dark_blue>")
+            .replace("&2", "<dark_green>")
+            .replace("&3", "<dark_aqua>")
+            .replace("&4", "<dark_red>")
+            .replace("&5", "<dark_purple>")
+            .replace("&6", "<gold>")
+            .replace("&7", "<gray>")
+            .replace("&8", "<dark_gray>")
+            .replace("&9", "<blue>")
+            .replace("&a", "<green>")
+            .replace("&b", "<aqua>")
+            .replace("&c", "<red>")
+            .replace("&d", "<light_purple>")
+            .replace("&e", "<yellow>")
+            .replace("&f", "<white>")
+            .replace("&k", "<obf>")
+            .replace("&l", "<b>")
+            .replace("&m", "<st>")
+            .replace("&n", "<u>")
+            .replace("&o", "<i>")
+            .replace("&r", "<reset>");
+    }
+
+    // Same as the Matcher#appendReplacement loops TextFormatter used
+    private static String replaceAll(Pattern pattern, String input, Function<Matcher, String> replacement) {
+        final Matcher matcher = pattern.matcher(input);
+        final StringBuilder result = new StringBuilder();
+
+        while (matcher.find()) {
+            matcher.appendReplacement(result, replacement.apply(matcher));
+        }
+        matcher.appendTail(result);
+
+        return result.toString();
+    }
+}